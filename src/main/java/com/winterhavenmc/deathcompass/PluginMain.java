@@ -48,6 +48,7 @@ public final class PluginMain extends JavaPlugin {
 	public WorldManager worldManager;
 	public DataStore dataStore;
 	public DeathCompassFactory deathCompassFactory;
+	public InventoryEventListener inventoryEventListener;
 
 
 	@Override
@@ -75,7 +76,7 @@ public final class PluginMain extends JavaPlugin {
 		new PlayerEventListener(this);
 
 		// instantiate inventory event listener
-		new InventoryEventListener(this);
+		inventoryEventListener = new InventoryEventListener(this);
 
 		// instantiate death compass factory
 		deathCompassFactory = new DeathCompassFactory(this);
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.commands;
+
+import com.winterhavenmc.deathcompass.PluginMain;
+import com.winterhavenmc.deathcompass.messages.MessageId;
+import com.winterhavenmc.deathcompass.sounds.SoundId;
+import com.winterhavenmc.deathcompass.storage.StorageMetrics;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+
+/**
+ * Dumps datastore cache counters and operation latencies as one key=value pair per line,
+ * without colors, for collection by scripts reading the server console
+ */
+final class MetricsCommand extends SubcommandAbstract {
+
+	private final PluginMain plugin;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param plugin reference to plugin main class
+	 */
+	MetricsCommand(final PluginMain plugin) {
+		this.plugin = Objects.requireNonNull(plugin);
+		this.name = "metrics";
+		this.usageString = "/deathcompass metrics";
+		this.description = MessageId.COMMAND_HELP_METRICS;
+	}
+
+
+	@Override
+	public boolean onCommand(final CommandSender sender, final List<String> args) {
+
+		if (!sender.hasPermission("deathcompass.metrics")) {
+			plugin.messageBuilder.build(sender, MessageId.COMMAND_FAIL_METRICS_PERMISSION).send();
+			plugin.soundConfig.playSound(sender, SoundId.COMMAND_FAIL);
+			return true;
+		}
+
+		final StorageMetrics metrics = plugin.dataStore.getMetrics();
+
+		sender.sendMessage("datastore.type=" + plugin.dataStore);
+		sender.sendMessage("datastore.write_queue=" + metrics.getWriteQueueSize());
+		sender.sendMessage("cache.size=" + metrics.getCacheSize());
+		sender.sendMessage("cache.hits=" + metrics.getCacheHits());
+		sender.sendMessage("cache.negative_hits=" + metrics.getCacheNegativeHits());
+		sender.sendMessage("cache.misses=" + metrics.getCacheMisses());
+		sender.sendMessage("cache.evictions=" + metrics.getCacheEvictions());
+
+		for (StorageMetrics.Operation operation : StorageMetrics.Operation.values()) {
+			String prefix = "latency." + operation.name().toLowerCase(Locale.ROOT) + ".";
+			StorageMetrics.LatencyHistogram latency = metrics.getLatency(operation);
+			sender.sendMessage(prefix + "count=" + latency.getCount());
+			sender.sendMessage(prefix + "mean_us=" + latency.getMeanMicros());
+			sender.sendMessage(prefix + "p50_us=" + latency.getPercentileMicros(50));
+			sender.sendMessage(prefix + "p99_us=" + latency.getPercentileMicros(99));
+		}
+
+		return true;
+	}
+
+}
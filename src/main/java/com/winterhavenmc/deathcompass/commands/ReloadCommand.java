@@ -71,6 +71,12 @@ final class ReloadCommand extends SubcommandAbstract {
 		// reload messages
 		plugin.messageBuilder.reload();
 
+		// rebuild death compass item with reloaded name and lore
+		plugin.deathCompassFactory.reload();
+
+		// update cached inventory listener settings
+		plugin.inventoryEventListener.reload();
+
 		// reload sounds
 		plugin.soundConfig.reload();
 
@@ -20,11 +20,13 @@ package com.winterhavenmc.deathcompass.commands;
 import com.winterhavenmc.deathcompass.PluginMain;
 import com.winterhavenmc.deathcompass.messages.MessageId;
 import com.winterhavenmc.deathcompass.sounds.SoundId;
+import com.winterhavenmc.deathcompass.storage.StorageMetrics;
 
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
 
@@ -78,7 +80,44 @@ final class StatusCommand extends SubcommandAbstract {
 		sender.sendMessage(ChatColor.GREEN + "Enabled Words: "
 				+ ChatColor.RESET + plugin.worldManager.getEnabledWorldNames().toString()
 				+ ChatColor.RESET);
+
+		displayStorageMetrics(sender);
 		return true;
 	}
 
+
+	/**
+	 * Display datastore cache counters and operation latencies
+	 *
+	 * @param sender the command sender
+	 */
+	private void displayStorageMetrics(final CommandSender sender) {
+
+		final StorageMetrics metrics = plugin.dataStore.getMetrics();
+
+		sender.sendMessage(ChatColor.GREEN + "Datastore: "
+				+ ChatColor.RESET + plugin.dataStore
+				+ ChatColor.GRAY + " (" + metrics.getWriteQueueSize() + " queued writes)");
+
+		final long lookups = metrics.getCacheHits() + metrics.getCacheNegativeHits() + metrics.getCacheMisses();
+		final long hitPercent = lookups == 0 ? 0 : (metrics.getCacheHits() + metrics.getCacheNegativeHits()) * 100 / lookups;
+
+		sender.sendMessage(ChatColor.GREEN + "Cache: "
+				+ ChatColor.RESET + metrics.getCacheSize() + " entries, "
+				+ metrics.getCacheHits() + " hits, "
+				+ metrics.getCacheNegativeHits() + " negative hits, "
+				+ metrics.getCacheMisses() + " misses ("
+				+ hitPercent + "% hit rate), "
+				+ metrics.getCacheEvictions() + " evictions");
+
+		for (StorageMetrics.Operation operation : StorageMetrics.Operation.values()) {
+			StorageMetrics.LatencyHistogram latency = metrics.getLatency(operation);
+			sender.sendMessage(ChatColor.GREEN + "  " + operation.name().toLowerCase(Locale.ROOT).replace('_', ' ') + ": "
+					+ ChatColor.RESET + latency.getCount() + " calls, mean "
+					+ latency.getMeanMicros() + "\u00b5s, p50 < "
+					+ latency.getPercentileMicros(50) + "\u00b5s, p99 < "
+					+ latency.getPercentileMicros(99) + "\u00b5s");
+		}
+	}
+
 }
\ No newline at end of file
@@ -36,6 +36,13 @@ enum SubcommandType {
 		Subcommand create(final PluginMain plugin) {
 			return new StatusCommand(plugin);
 		}
+	},
+
+	METRICS() {
+		@Override
+		Subcommand create(final PluginMain plugin) {
+			return new MetricsCommand(plugin);
+		}
 	};
 
 	abstract Subcommand create(final PluginMain plugin);
@@ -50,6 +50,9 @@ public final class InventoryEventListener implements Listener {
 			InventoryType.FURNACE,
 			InventoryType.WORKBENCH );
 
+	// prevent-storage setting from config, cached since hopper events fire thousands of times per second
+	private volatile boolean preventStorage;
+
 
 	/**
 	 * class constructor
@@ -61,11 +64,22 @@ public final class InventoryEventListener implements Listener {
 		// set reference to main class
 		this.plugin = plugin;
 
+		// get settings from config
+		reload();
+
 		// register event handlers in this class
 		plugin.getServer().getPluginManager().registerEvents(this, plugin);
 	}
 
 
+	/**
+	 * Update cached settings from config. Must be called after config is reloaded.
+	 */
+	public void reload() {
+		this.preventStorage = plugin.getConfig().getBoolean("prevent-storage");
+	}
+
+
 	/**
 	 * Prevent hoppers from inserting DeathCompass items into containers
 	 *
@@ -75,7 +89,7 @@ public final class InventoryEventListener implements Listener {
 	public void onInventoryMoveItem(final InventoryMoveItemEvent event) {
 
 		// if prevent-storage is configured false, do nothing and return
-		if (!plugin.getConfig().getBoolean("prevent-storage")) {
+		if (!preventStorage) {
 			return;
 		}
 
@@ -98,7 +112,7 @@ public final class InventoryEventListener implements Listener {
 	public void onInventoryClick(final InventoryClickEvent event) {
 
 		// if prevent-storage is configured false, do nothing and return
-		if (!plugin.getConfig().getBoolean("prevent-storage")) {
+		if (!preventStorage) {
 			return;
 		}
 
@@ -155,7 +169,7 @@ public final class InventoryEventListener implements Listener {
 	public void onInventoryDrag(final InventoryDragEvent event) {
 
 		// if prevent-storage is configured false, do nothing and return
-		if (!plugin.getConfig().getBoolean("prevent-storage")) {
+		if (!preventStorage) {
 			return;
 		}
 
@@ -21,6 +21,7 @@ import com.winterhavenmc.deathcompass.PluginMain;
 import com.winterhavenmc.deathcompass.messages.MessageId;
 import com.winterhavenmc.deathcompass.sounds.SoundId;
 import com.winterhavenmc.deathcompass.storage.DeathRecord;
+import com.winterhavenmc.deathcompass.util.MainThreadExecutor;
 
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
@@ -37,6 +38,7 @@ import org.bukkit.scheduler.BukkitRunnable;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -50,6 +52,9 @@ public final class PlayerEventListener implements Listener {
 	// player death respawn hash set, used to prevent giving compass on non-death respawn events
 	private final Set<UUID> deathTriggeredRespawn = ConcurrentHashMap.newKeySet();
 
+	// executor for handing datastore results back to main thread
+	private final Executor mainThreadExecutor;
+
 
 	/**
 	 * Class constructor
@@ -61,6 +66,9 @@ public final class PlayerEventListener implements Listener {
 		// set reference to main class
 		this.plugin = plugin;
 
+		// create main thread executor
+		this.mainThreadExecutor = new MainThreadExecutor(plugin);
+
 		// register event handlers in this class
 		plugin.getServer().getPluginManager().registerEvents(this, plugin);
 	}
@@ -83,13 +91,10 @@ public final class PlayerEventListener implements Listener {
 			// get iterator of death drops list
 			ListIterator<ItemStack> iterator = drops.listIterator();
 
-			// create death compass stack for comparison
-			ItemStack deathCompass = plugin.deathCompassFactory.createItem();
-
 			// loop through all dropped items and remove any stacks that are death compasses
 			while (iterator.hasNext()) {
 				ItemStack stack = iterator.next();
-				if (stack.isSimilar(deathCompass)) {
+				if (plugin.deathCompassFactory.isSimilar(stack)) {
 					iterator.remove();
 				}
 			}
@@ -177,16 +182,8 @@ public final class PlayerEventListener implements Listener {
 			return;
 		}
 
-		// create 1 compass itemstack with configured settings
-		ItemStack deathcompass = plugin.deathCompassFactory.createItem();
-
-		// get player last death location
-		Location lastDeathLocation = getDeathLocation(player);
-
-		// if player does not have at least one death compass in inventory or
-		// saved death location in current world, do nothing and return
-		if (!player.getInventory().containsAtLeast(deathcompass, 1) ||
-				lastDeathLocation == null) {
+		// if player does not have at least one death compass in inventory, do nothing and return
+		if (!plugin.deathCompassFactory.isInInventory(player.getInventory())) {
 			return;
 		}
 
@@ -216,19 +213,8 @@ public final class PlayerEventListener implements Listener {
 			return;
 		}
 
-		// create DeathCompass itemstack
-		ItemStack deathcompass = plugin.deathCompassFactory.createItem();
-
 		// if player does not have a death compass in inventory, do nothing and return
-		if (!player.getInventory().containsAtLeast(deathcompass,1)) {
-			return;
-		}
-
-		// get last death location from datastore
-		Location lastDeathLocation = getDeathLocation(player);
-
-		// if player does not have a saved death location, do nothing and return
-		if (lastDeathLocation == null) {
+		if (!plugin.deathCompassFactory.isInInventory(player.getInventory())) {
 			return;
 		}
 
@@ -280,11 +266,8 @@ public final class PlayerEventListener implements Listener {
 		// get itemstack that was dropped
 		ItemStack droppedItemStack = event.getItemDrop().getItemStack();
 
-		// create death compass itemstack for comparison
-		ItemStack dc = plugin.deathCompassFactory.createItem();
-
 		// if droppedItemStack is not a DeathCompass or destroy-on-drop config is not true, do nothing and return
-		if (!droppedItemStack.isSimilar(dc) || !plugin.getConfig().getBoolean("destroy-on-drop")) {
+		if (!plugin.deathCompassFactory.isSimilar(droppedItemStack) || !plugin.getConfig().getBoolean("destroy-on-drop")) {
 			return;
 		}
 
@@ -295,7 +278,7 @@ public final class PlayerEventListener implements Listener {
 		plugin.soundConfig.playSound(player, SoundId.PLAYER_DROP_COMPASS);
 
 		// if inventory does not contain at least 1 death compass, reset compass target
-		if (!player.getInventory().containsAtLeast(dc, 1)) {
+		if (!plugin.deathCompassFactory.isInInventory(player.getInventory())) {
 			resetDeathCompassTarget(player);
 		}
 
@@ -336,7 +319,9 @@ public final class PlayerEventListener implements Listener {
 
 	/**
 	 * Set death compass target
-	 * delay for configured number of ticks (default 20)  to allow player to respawn
+	 * delay for configured number of ticks (default 20)  to allow player to respawn.
+	 * The death record is fetched from the datastore asynchronously, and the compass
+	 * target is set on the main thread when the record is available.
 	 *
 	 * @param player the player whose death location is being set as the compass target
 	 */
@@ -344,13 +329,26 @@ public final class PlayerEventListener implements Listener {
 		new BukkitRunnable() {
 
 			public void run() {
-				Location location = getDeathLocation(player);
-				if (location.getWorld() != player.getWorld()) {
-					return;
-				}
-				player.setCompassTarget(location);
+				plugin.dataStore.selectRecordAsync(player.getUniqueId(), player.getWorld().getUID())
+						.thenAcceptAsync(optionalDeathRecord -> {
+
+							// if player logged out while record was fetched, do nothing and return
+							if (!player.isOnline()) {
+								return;
+							}
+
+							// get death location, or world spawn location if no stored death record found
+							Location location = optionalDeathRecord
+									.flatMap(DeathRecord::getLocation)
+									.orElse(player.getWorld().getSpawnLocation());
+
+							if (location.getWorld() != player.getWorld()) {
+								return;
+							}
+							player.setCompassTarget(location);
+						}, mainThreadExecutor);
 			}
-		}.runTaskLaterAsynchronously(plugin, plugin.getConfig().getLong("target-delay"));
+		}.runTaskLater(plugin, plugin.getConfig().getLong("target-delay"));
 	}
 
 
@@ -365,34 +363,4 @@ public final class PlayerEventListener implements Listener {
 		player.setCompassTarget(player.getWorld().getSpawnLocation());
 	}
 
-
-	/**
-	 * Retrieve player death location from datastore
-	 *
-	 * @param player the player whose death location is being retrieved
-	 * @return location
-	 */
-	private Location getDeathLocation(final Player player) {
-
-		// check for null parameter
-		Objects.requireNonNull(player);
-
-		// get worldUid for player current world
-		final UUID worldUid = player.getWorld().getUID();
-
-		// set location to world spawn location, to be used as default if no stored death record found
-		Location location = player.getWorld().getSpawnLocation();
-
-		// fetch death record from datastore
-		final Optional<DeathRecord> optionalDeathRecord = plugin.dataStore.selectRecord(player.getUniqueId(), worldUid);
-
-		// if fetched record is not empty, set location
-		if (optionalDeathRecord.isPresent() && optionalDeathRecord.get().getLocation().isPresent()) {
-			location = optionalDeathRecord.get().getLocation().get();
-		}
-
-		// return location
-		return location;
-	}
-
 }
@@ -30,12 +30,14 @@ public enum MessageId {
 	COMMAND_FAIL_HELP_PERMISSION,
 	COMMAND_FAIL_RELOAD_PERMISSION,
 	COMMAND_FAIL_STATUS_PERMISSION,
+	COMMAND_FAIL_METRICS_PERMISSION,
 	COMMAND_SUCCESS_RELOAD,
 
 	COMMAND_HELP_INVALID,
 	COMMAND_HELP_HELP,
 	COMMAND_HELP_RELOAD,
 	COMMAND_HELP_STATUS,
+	COMMAND_HELP_METRICS,
 	COMMAND_HELP_USAGE,
 
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.util.Objects;
+
+
+/**
+ * Background task that checkpoints the SQLite write-ahead log. A passive checkpoint is run
+ * while the log is small; once it grows past the configured size, a truncate checkpoint is
+ * run to reset the log file.
+ */
+final class CheckpointTask extends BukkitRunnable {
+
+	// reference to plugin main class
+	private final JavaPlugin plugin;
+
+	// statement registry for writer connection
+	private final StatementCache statementCache;
+
+	// lock guarding writer connection
+	private final Object connectionLock;
+
+	// write-ahead log file
+	private final File walFile;
+
+	// log size in bytes at which a truncate checkpoint is run
+	private final long truncateBytes;
+
+	// true if task has been scheduled
+	private boolean scheduled;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param plugin         reference to plugin main class
+	 * @param statementCache the statement registry of the writer connection
+	 * @param connectionLock the lock guarding the writer connection
+	 * @param dataFilePath   the path of the database file
+	 */
+	CheckpointTask(final JavaPlugin plugin,
+	               final StatementCache statementCache,
+	               final Object connectionLock,
+	               final String dataFilePath) {
+
+		this.plugin = Objects.requireNonNull(plugin);
+		this.statementCache = Objects.requireNonNull(statementCache);
+		this.connectionLock = Objects.requireNonNull(connectionLock);
+		this.walFile = new File(dataFilePath + "-wal");
+		this.truncateBytes = Math.max(0, plugin.getConfig().getLong("storage-checkpoint-truncate-size", 16)) * 1024 * 1024;
+	}
+
+
+	/**
+	 * Schedule task to run at configured interval
+	 */
+	void schedule() {
+
+		long intervalTicks = plugin.getConfig().getLong("storage-checkpoint-interval", 60) * 20;
+
+		// if interval is zero or negative, checkpoints are left to sqlite auto-checkpoint
+		if (intervalTicks > 0) {
+			this.runTaskTimerAsynchronously(plugin, intervalTicks, intervalTicks);
+			scheduled = true;
+		}
+	}
+
+
+	/**
+	 * Cancel task if scheduled
+	 */
+	void stop() {
+		if (scheduled) {
+			this.cancel();
+			scheduled = false;
+		}
+	}
+
+
+	@Override
+	public void run() {
+
+		// if there is no write-ahead log, there is nothing to checkpoint
+		if (!walFile.exists() || walFile.length() == 0) {
+			return;
+		}
+
+		final String queryName = walFile.length() >= truncateBytes ? "CheckpointTruncate" : "CheckpointPassive";
+
+		synchronized (connectionLock) {
+			try (ResultSet rs = statementCache.get(queryName).executeQuery()) {
+
+				// result columns are busy flag, log frames, and checkpointed frames
+				if (rs.next() && plugin.getConfig().getBoolean("debug")) {
+					plugin.getLogger().info(queryName + ": busy=" + rs.getInt(1)
+							+ ", log=" + rs.getInt(2) + ", checkpointed=" + rs.getInt(3));
+				}
+			}
+			catch (Exception e) {
+				plugin.getLogger().warning("An error occurred while checkpointing the SQLite database.");
+				plugin.getLogger().warning(e.getLocalizedMessage());
+			}
+		}
+	}
+
+}
@@ -18,18 +18,46 @@
 package com.winterhavenmc.deathcompass.storage;
 
 import com.winterhavenmc.deathcompass.PluginMain;
-import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Persistent storage for player death records.
+ * <p>
+ * Thread safety: {@link #selectRecord}, {@link #selectAllRecords}, {@link #insertRecord},
+ * {@link #insertRecords} and {@link #deleteRecord} may be called from any thread.
+ * Lookups use read-only connections and never wait on writes; single inserts are queued
+ * to a writer thread and return immediately, while bulk inserts are written before
+ * returning. {@link #initialize}, {@link #close},
+ * {@link #connect} and {@link #reload} must only be called from the server main thread.
+ * <p>
+ * The {@code Async} variants run on the datastore executor and return futures. Their
+ * results must not be used with the Bukkit API unless handed back to the main thread,
+ * for example with {@link com.winterhavenmc.deathcompass.util.MainThreadExecutor}.
+ */
 public interface DataStore {
 
+	/**
+	 * Initialize storage, and load records of players already online into the cache
+	 */
+	default void initialize() throws Exception {
+		initialize(true);
+	}
+
+
 	/**
 	 * Initialize storage
+	 *
+	 * @param warmCache true to load records of players already online into the cache, for a
+	 *                  datastore that will serve their lookups; false for a conversion source
 	 */
-	void initialize() throws Exception;
+	void initialize(final boolean warmCache) throws Exception;
 
 
 	/**
@@ -47,7 +75,9 @@ public interface DataStore {
 
 
 	/**
-	 * get all records from datastore
+	 * get all records from datastore. Safe to call from any thread, but reads the
+	 * whole table, so should not be called from the server main thread. Holds every
+	 * record in memory; use {@link #forEachRecord} for large datastores.
 	 *
 	 * @return List of all DeathRecords
 	 */
@@ -55,7 +85,77 @@ public interface DataStore {
 
 
 	/**
-	 * Get record from datastore
+	 * Pass every record in datastore to a consumer, reading records from storage as they
+	 * are consumed, so memory use does not grow with the number of records. Safe to call
+	 * from any thread, but should not be called from the server main thread. The consumer
+	 * runs on the calling thread while a storage connection is held, and should not block.
+	 *
+	 * @param consumer the consumer to receive each record
+	 * @return the number of records passed to consumer
+	 */
+	int forEachRecord(final Consumer<DeathRecord> consumer);
+
+
+	/**
+	 * Count records in datastore, including records of worlds that are not loaded. Safe to call
+	 * from any thread, but should not be called from the server main thread.
+	 *
+	 * @return the number of stored records
+	 */
+	long countRecords();
+
+
+	/**
+	 * Get a page of records in key order, for copying a datastore a chunk at a time. Records
+	 * are read from storage, bypassing the cache, and are returned even if their world is not
+	 * loaded. Safe to call from any thread, but should not be called from the server main thread.
+	 *
+	 * @param after the last record of the previous page, or null for the first page
+	 * @param limit the maximum number of records to return
+	 * @return the records following {@code after} in key order, empty if no records remain
+	 */
+	List<DeathRecord> selectRecordsAfter(final DeathRecord after, final int limit);
+
+
+	/**
+	 * Get the stored records with the same player and world as the given records, bypassing
+	 * the cache, for verifying a copy. Safe to call from any thread, but should not be
+	 * called from the server main thread.
+	 *
+	 * @param deathRecords the records whose keys are to be looked up
+	 * @return the stored records matching the keys, in no particular order
+	 */
+	Collection<DeathRecord> selectRecordsByKey(final Collection<DeathRecord> deathRecords);
+
+
+	/**
+	 * Get the last record copied into this datastore by an unfinished conversion
+	 *
+	 * @param sourceType the datastore type being converted from
+	 * @return the last record copied, or empty optional if no conversion is in progress
+	 */
+	Optional<DeathRecord> getConversionCheckpoint(final DataStoreType sourceType);
+
+
+	/**
+	 * Record progress of a conversion into this datastore, so it can resume after a restart
+	 *
+	 * @param sourceType the datastore type being converted from
+	 * @param lastRecord the last record copied
+	 */
+	void setConversionCheckpoint(final DataStoreType sourceType, final DeathRecord lastRecord);
+
+
+	/**
+	 * Remove the progress record of a finished conversion into this datastore
+	 *
+	 * @param sourceType the datastore type converted from
+	 */
+	void clearConversionCheckpoint(final DataStoreType sourceType);
+
+
+	/**
+	 * Get record from datastore. Safe to call from any thread; does not wait on pending writes.
 	 *
 	 * @param playerUUID the player UUID of the record to be retrieved
 	 * @param worldUID   the world UID of the record to be retrieved
@@ -65,7 +165,27 @@ public interface DataStore {
 
 
 	/**
-	 * Insert a record in datastore
+	 * Get all records for a player, across all loaded worlds. Safe to call from any thread.
+	 *
+	 * @param playerUUID the player UUID of the records to be retrieved
+	 * @return collection of death records for player, empty if none found
+	 */
+	Collection<DeathRecord> selectRecordsForPlayer(final UUID playerUUID);
+
+
+	/**
+	 * Get all records for a collection of players, across all loaded worlds, using as few
+	 * queries as possible. Safe to call from any thread.
+	 *
+	 * @param playerUUIDs the player UUIDs of the records to be retrieved
+	 * @return collection of death records for players, empty if none found
+	 */
+	Collection<DeathRecord> selectRecords(final Collection<UUID> playerUUIDs);
+
+
+	/**
+	 * Insert a record in datastore. Safe to call from any thread; the record is
+	 * cached immediately and written by the writer thread.
 	 *
 	 * @param deathRecord a DeathRecord to be inserted
 	 */
@@ -73,7 +193,9 @@ public interface DataStore {
 
 
 	/**
-	 * Insert records in datastore
+	 * Insert records in datastore. Records are written before this method returns, in
+	 * transactions of a configured chunk size, so it should not be called from the
+	 * server main thread for large collections.
 	 *
 	 * @param deathRecords a collection of DeathRecords to be inserted
 	 * @return int number of records inserted
@@ -82,7 +204,10 @@ public interface DataStore {
 
 
 	/**
-	 * Delete record
+	 * Delete record. Safe to call from any thread; the record is removed from the cache
+	 * immediately, and the delete is queued for the writer thread, which writes it after
+	 * the configured write-behind delay, or on the next flush. Lookups in the meantime
+	 * find no record.
 	 *
 	 * @param playerUUID the player uuid of the record to delete
 	 * @param worldUID   the world uid of the record to delete
@@ -92,6 +217,67 @@ public interface DataStore {
 	Optional<DeathRecord> deleteRecord(final UUID playerUUID, final UUID worldUID);
 
 
+	/**
+	 * Get the executor that runs asynchronous datastore operations
+	 *
+	 * @return the datastore executor
+	 */
+	Executor getExecutor();
+
+
+	/**
+	 * Get cache and operation metrics of this datastore
+	 *
+	 * @return the datastore metrics
+	 */
+	StorageMetrics getMetrics();
+
+
+	/**
+	 * Get all records from datastore asynchronously
+	 *
+	 * @return future of collection of all DeathRecords
+	 */
+	default CompletableFuture<Collection<DeathRecord>> selectAllRecordsAsync() {
+		return CompletableFuture.supplyAsync(this::selectAllRecords, getExecutor());
+	}
+
+
+	/**
+	 * Get record from datastore asynchronously
+	 *
+	 * @param playerUUID the player UUID of the record to be retrieved
+	 * @param worldUID   the world UID of the record to be retrieved
+	 * @return future of death record, or empty optional if no matching record found
+	 */
+	default CompletableFuture<Optional<DeathRecord>> selectRecordAsync(final UUID playerUUID, final UUID worldUID) {
+		return CompletableFuture.supplyAsync(() -> selectRecord(playerUUID, worldUID), getExecutor());
+	}
+
+
+	/**
+	 * Insert records in datastore asynchronously
+	 *
+	 * @param deathRecords a collection of DeathRecords to be inserted
+	 * @return future of number of records inserted
+	 */
+	default CompletableFuture<Integer> insertRecordsAsync(final Collection<DeathRecord> deathRecords) {
+		return CompletableFuture.supplyAsync(() -> insertRecords(deathRecords), getExecutor());
+	}
+
+
+	/**
+	 * Delete record asynchronously
+	 *
+	 * @param playerUUID the player uuid of the record to delete
+	 * @param worldUID   the world uid of the record to delete
+	 * @return future of the DeathRecord that was deleted from datastore
+	 */
+	default CompletableFuture<Optional<DeathRecord>> deleteRecordAsync(final UUID playerUUID, final UUID worldUID) {
+		return CompletableFuture.supplyAsync(() -> deleteRecord(playerUUID, worldUID), getExecutor());
+	}
+
+
 	/**
 	 * Close storage
 	 */
@@ -119,7 +305,7 @@ public interface DataStore {
 	 *
 	 * @return new datastore of configured type
 	 */
-	static DataStore connect(final JavaPlugin plugin) {
+	static DataStore connect(final PluginMain plugin) {
 
 		// get data store type from config
 		DataStoreType dataStoreType = DataStoreType.match(plugin.getConfig().getString("storage-type"));
@@ -139,16 +325,17 @@ public interface DataStore {
 			}
 		}
 
-		// convert any existing data stores to new type
-		DataStoreType.convertAll(plugin, newDataStore);
-
-		// return initialized data store
-		return newDataStore;
+		// convert any existing data stores to new type, off the main thread; until conversion
+		// is complete, the returned datastore serves reads from the old datastore
+		return DataStoreType.convertAll(plugin, newDataStore);
 	}
 
 
 	/**
-	 * Reload datastore, if configuration has changed
+	 * Reload datastore, if configuration has changed. A change of storage type is applied
+	 * without interrupting lookups: the current datastore keeps serving reads while its
+	 * records are copied to the new datastore in the background, and every change is
+	 * written to both until reads switch to the new datastore.
 	 *
 	 * @param plugin reference to plugin main class
 	 */
@@ -160,11 +347,38 @@ public interface DataStore {
 		// get configured datastore type
 		DataStoreType newType = DataStoreType.match(plugin.getConfig().getString("storage-type"));
 
-		// if current datastore type does not match configured datastore type, create new datastore
+		// if a migration is still copying records, do not start another
+		if (plugin.dataStore instanceof MigratingDataStore && !((MigratingDataStore) plugin.dataStore).isComplete()) {
+			if (!currentType.equals(newType)) {
+				plugin.getLogger().warning("A datastore migration is in progress. "
+						+ "Reload again when it is complete to change storage type.");
+			}
+			return;
+		}
+
+		// if current datastore type does not match configured datastore type, migrate to new datastore
 		if (!currentType.equals(newType)) {
 
 			// create new datastore
-			plugin.dataStore = connect(plugin);
+			DataStore newDataStore = newType.connect(plugin);
+
+			// initialize new datastore
+			try {
+				newDataStore.initialize();
+			}
+			catch (Exception e) {
+				plugin.getLogger().severe("Could not initialize " + newDataStore + " datastore!");
+				plugin.getLogger().severe(e.getLocalizedMessage());
+				if (plugin.getConfig().getBoolean("debug")) {
+					e.printStackTrace();
+				}
+				return;
+			}
+
+			// serve reads from current datastore and write to both until copy is complete
+			MigratingDataStore migratingDataStore = new MigratingDataStore(plugin, plugin.dataStore, newDataStore);
+			plugin.dataStore = migratingDataStore;
+			migratingDataStore.start();
 		}
 	}
 
@@ -18,13 +18,25 @@
 package com.winterhavenmc.deathcompass.storage;
 
 import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 
 final class DataStoreSQLite extends DataStoreAbstract implements DataStore, Listener {
@@ -32,17 +44,70 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 	// reference to main class
 	private final JavaPlugin plugin;
 
-	// database connection object
+	// database connection used for writes
 	private Connection connection;
 
+	// prepared statements for writer connection
+	private StatementCache statementCache;
+
+	// lock guarding writer connection
+	private final Object writeLock = new Object();
+
+	// pool of read-only connections used for lookups
+	private ReaderPool readerPool;
+
+	// executor for asynchronous datastore operations
+	private ExecutorService executor;
+
+	// coalesces loads of all records for players
+	private PlayerRecordLoader playerRecordLoader;
+
+	// number of players in each bulk query
+	private final static int SELECT_CHUNK_SIZE = 100;
+
+	// bound used to pad bulk player queries; keys are 32 bytes, so no key lies between two empty bounds
+	private final static byte[] EMPTY_BOUND = new byte[0];
+
+	// maximum time to wait for records of a player to load
+	private final static long PRELOAD_TIMEOUT_SECONDS = 5;
+
+	// number of rows inserted per batch during schema migration
+	private final static int MIGRATION_BATCH_SIZE = 1000;
+
 	// file path for datastore file
 	private final String dataFilePath;
 
 	// death record cache
 	private final DeathRecordCache deathRecordCache;
 
+	// cache and operation metrics
+	private final StorageMetrics metrics = new StorageMetrics();
+
 	// schema version
-	private int schemaVersion;
+	private volatile int schemaVersion;
+
+	// single writer thread for inserts
+	private DataStoreWriter dataStoreWriter;
+
+	// write-ahead log checkpoint task
+	private CheckpointTask checkpointTask;
+
+	// filter of players with stored records
+	private PlayerFilter playerFilter;
+
+	// true if a cache miss loads records of player for all worlds
+	private final boolean loadWholePlayer;
+
+	// true if records of online players are loaded when a world is loaded
+	private final boolean preloadOnWorldLoad;
+
+	// file the player filter is saved to between server restarts
+	private final File playerFilterFile;
+
+	// allowed values for pragmas that take a keyword
+	private final static Collection<String> JOURNAL_MODES = Set.of("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+	private final static Collection<String> SYNCHRONOUS_MODES = Set.of("OFF", "NORMAL", "FULL", "EXTRA");
+	private final static Collection<String> TEMP_STORE_MODES = Set.of("DEFAULT", "FILE", "MEMORY");
 
 
 	/**
@@ -60,13 +125,16 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 
 		// set datastore file path
 		this.dataFilePath = plugin.getDataFolder() + File.separator + type.getStorageName();
+		this.playerFilterFile = new File(dataFilePath + ".filter");
 
 		// initialize death record cache
-		deathRecordCache = new DeathRecordCache(plugin);
+		deathRecordCache = new DeathRecordCache(plugin, metrics);
+		loadWholePlayer = plugin.getConfig().getBoolean("cache-load-whole-player", true);
+		preloadOnWorldLoad = plugin.getConfig().getBoolean("cache-preload-on-world-load", false);
 	}
 
 	@Override
-	public void initialize() throws SQLException, ClassNotFoundException {
+	public void initialize(final boolean warmCache) throws SQLException, ClassNotFoundException {
 
 		// if data store is already initialized, do nothing and return
 		if (this.isInitialized()) {
@@ -81,402 +149,1179 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 
 		Class.forName(jdbcDriverName);
 
-		// create database url
-		String jdbc = "jdbc:sqlite";
-		String dbUrl = jdbc + ":" + dataFilePath;
+		// create database url
+		String jdbc = "jdbc:sqlite";
+		String dbUrl = jdbc + ":" + dataFilePath;
+
+		// create a database connection
+		connection = DriverManager.getConnection(dbUrl);
+
+		// apply configured pragmas to connection
+		applyPragmas(connection, false);
+
+		// create prepared statement registry for connection
+		statementCache = new StatementCache(connection);
+
+		// create read-only connections for lookups
+		int readerCount = Math.max(1, plugin.getConfig().getInt("storage-reader-connections", 2));
+		Collection<Connection> readerConnections = new ArrayList<>(readerCount);
+		for (int i = 0; i < readerCount; i++) {
+			Connection readerConnection = DriverManager.getConnection(dbUrl);
+			applyPragmas(readerConnection, true);
+			readerConnections.add(readerConnection);
+		}
+		readerPool = new ReaderPool(readerConnections);
+
+		// create executor for asynchronous operations, one thread per reader connection
+		executor = Executors.newFixedThreadPool(readerCount, runnable -> {
+			Thread thread = new Thread(runnable, plugin.getName() + " datastore executor");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// create loader for bulk player record queries; loads run on server async threads, so a
+		// lookup on an executor thread waiting for a load cannot hold up the load itself
+		playerRecordLoader = new PlayerRecordLoader(this::selectRecords,
+				runnable -> plugin.getServer().getScheduler().runTaskAsynchronously(plugin, runnable));
+
+		// start writer thread
+		dataStoreWriter = new DataStoreWriter(plugin, connection, statementCache, writeLock, metrics);
+		dataStoreWriter.start();
+
+		// update database schema if necessary, then load or build player filter
+		synchronized (writeLock) {
+			updateSchema();
+			loadPlayerFilter();
+		}
+
+		// schedule write-ahead log checkpoints
+		checkpointTask = new CheckpointTask(plugin, statementCache, writeLock, dataFilePath);
+		checkpointTask.schedule();
+
+		// register event handlers in this class
+		plugin.getServer().getPluginManager().registerEvents(this, plugin);
+
+		// start loading records of players already online, before lookups are served
+		if (warmCache) {
+			loadOnlinePlayers();
+		}
+
+		// set initialized true
+		setInitialized(true);
+		plugin.getLogger().info(this + " datastore initialized.");
+	}
+
+
+	/**
+	 * Start asynchronous load of records of all online players into the cache, in one bulk query,
+	 * so the first lookups after a reload are served from memory. Lookups for a player whose
+	 * records are still loading wait for the load. Must be called on the main thread.
+	 */
+	private void loadOnlinePlayers() {
+
+		final Collection<UUID> playerUids = new ArrayList<>();
+		for (Player player : plugin.getServer().getOnlinePlayers()) {
+			playerUids.add(player.getUniqueId());
+		}
+
+		if (playerUids.isEmpty()) {
+			return;
+		}
+
+		final long startTime = System.nanoTime();
+
+		playerRecordLoader.loadAll(playerUids).whenComplete((result, exception) -> {
+			if (exception != null) {
+				plugin.getLogger().warning("Could not load death records of online players: "
+						+ exception.getLocalizedMessage());
+			}
+			else if (plugin.getConfig().getBoolean("debug")) {
+				plugin.getLogger().info("Death records of " + playerUids.size() + " online players loaded in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms.");
+			}
+		});
+	}
+
+
+	/**
+	 * Wait for records of a player to finish loading, if a load is queued or in flight
+	 *
+	 * @param playerUid the player uuid
+	 * @return true if a load completed, false if no load was in flight or the load failed
+	 */
+	private boolean awaitPlayerLoad(final UUID playerUid) {
+
+		final Optional<CompletableFuture<Collection<DeathRecord>>> load = playerRecordLoader.getLoad(playerUid);
+		if (load.isEmpty()) {
+			return false;
+		}
+
+		try {
+			load.get().get(PRELOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (Exception e) {
+			// record will be queried on its own instead
+			if (plugin.getConfig().getBoolean("debug")) {
+				plugin.getLogger().warning("Could not wait for death records of player " + playerUid + " to load.");
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Apply storage tuning pragmas from config to a connection. Keyword values are checked
+	 * against the values sqlite accepts, since pragmas cannot take bound parameters.
+	 * The journal mode is a property of the database file, so it is only set on the
+	 * writer connection; reader connections are made query only.
+	 *
+	 * @param connection the connection to apply pragmas to
+	 * @param readOnly   true if connection is a read-only reader connection
+	 * @throws SQLException if a pragma could not be applied
+	 */
+	private void applyPragmas(final Connection connection, final boolean readOnly) throws SQLException {
+
+		try (final Statement statement = connection.createStatement()) {
+
+			if (readOnly) {
+				statement.execute("PRAGMA query_only = 1");
+			}
+			else {
+				String journalMode = getPragmaKeyword("storage-journal-mode", "WAL", JOURNAL_MODES);
+				statement.execute("PRAGMA journal_mode = " + journalMode);
+			}
+
+			String synchronous = getPragmaKeyword("storage-synchronous", "NORMAL", SYNCHRONOUS_MODES);
+			statement.execute("PRAGMA synchronous = " + synchronous);
+
+			String tempStore = getPragmaKeyword("storage-temp-store", "MEMORY", TEMP_STORE_MODES);
+			statement.execute("PRAGMA temp_store = " + tempStore);
+
+			// numeric values are read as longs, so they are safe to concatenate
+			statement.execute("PRAGMA cache_size = " + plugin.getConfig().getLong("storage-cache-size", -8000));
+			statement.execute("PRAGMA mmap_size = " + plugin.getConfig().getLong("storage-mmap-size", 67108864));
+		}
+
+		if (plugin.getConfig().getBoolean("debug")) {
+			plugin.getLogger().info("SQLite pragmas applied to database connection.");
+		}
+	}
+
+
+	/**
+	 * Get pragma keyword value from config, falling back to default if value is not allowed
+	 *
+	 * @param path          the config path of the value
+	 * @param defaultValue  the value to use if configured value is missing or not allowed
+	 * @param allowedValues the values allowed for the pragma
+	 * @return the pragma keyword value
+	 */
+	private String getPragmaKeyword(final String path, final String defaultValue, final Collection<String> allowedValues) {
+
+		String value = plugin.getConfig().getString(path, defaultValue).toUpperCase(Locale.ROOT);
+
+		if (!allowedValues.contains(value)) {
+			plugin.getLogger().warning("Invalid value for " + path + ": " + value + ". Using " + defaultValue + ".");
+			return defaultValue;
+		}
+
+		return value;
+	}
+
+
+	private int getSchemaVersion() {
+
+		int version = -1;
+
+		try (final Statement statement = connection.createStatement();
+		     final ResultSet rs = statement.executeQuery(Queries.getQuery("GetUserVersion"))) {
+
+			while (rs.next()) {
+				version = rs.getInt(1);
+			}
+		}
+		catch (SQLException e) {
+			plugin.getLogger().warning("Could not get schema version!");
+		}
+		return version;
+	}
+
+
+	/**
+	 * Update database schema to current version (v2). Schema v0 and v1 stored records in the
+	 * deathlocations table; v2 stores them in a WITHOUT ROWID table clustered on a 32 byte
+	 * player and world key, with world names moved to a separate worlds table. A database
+	 * with a schema version that is not recognized is left unchanged.
+	 *
+	 * @throws SQLException if the schema version is not recognized or the schema could not be updated
+	 */
+	private void updateSchema() throws SQLException {
+
+		schemaVersion = getSchemaVersion();
+
+		// migration drops the old table, so never migrate a database whose version could not be read,
+		// or that was written by a newer version of the plugin
+		if (schemaVersion < 0 || schemaVersion > 2) {
+			throw new SQLException("Unrecognized database schema version: " + schemaVersion
+					+ ". The database was not changed.");
+		}
+
+		try (final Statement statement = connection.createStatement()) {
+
+			// check for existing schema v0 or v1 table
+			final boolean legacyTable;
+			try (ResultSet rs = statement.executeQuery(Queries.getQuery("SelectDeathLocationTable"))) {
+				legacyTable = rs.next();
+			}
+
+			// create schema v2 tables
+			statement.executeUpdate(Queries.getQuery("CreateWorldTable"));
+			statement.executeUpdate(Queries.getQuery("CreateDeathRecordTable"));
+			statement.executeUpdate(Queries.getQuery("CreateConversionTable"));
+
+			if (legacyTable && schemaVersion < 2) {
+
+				int count = migrateLegacyTable(schemaVersion);
+				schemaVersion = 2;
+				plugin.getLogger().info(count + " records migrated to table schema v2.");
+
+				// reclaim pages freed by dropped table
+				statement.executeUpdate("VACUUM");
+			}
+			else if (schemaVersion < 2) {
+
+				// update schema version in database
+				statement.executeUpdate("PRAGMA user_version = 2");
+				schemaVersion = 2;
+			}
+		}
+	}
+
+
+	/**
+	 * Load player filter saved at last shutdown, or build it from stored records if there
+	 * is no saved filter, or the database was modified after the filter was saved. The saved
+	 * filter is deleted once read, so a filter that misses records inserted before a crash
+	 * is never used; it is saved again when the datastore is closed.
+	 *
+	 * @throws SQLException if the filter could not be built
+	 */
+	private void loadPlayerFilter() throws SQLException {
+
+		final File dataFile = new File(dataFilePath);
+
+		if (playerFilterFile.lastModified() >= dataFile.lastModified()) {
+			Optional<PlayerFilter> savedFilter = PlayerFilter.read(playerFilterFile);
+			if (savedFilter.isPresent() && !savedFilter.get().isOverCapacity()) {
+				playerFilter = savedFilter.get();
+				if (plugin.getConfig().getBoolean("debug")) {
+					plugin.getLogger().info("Player filter loaded from " + playerFilterFile.getName() + ".");
+				}
+			}
+		}
+
+		if (playerFilterFile.exists() && !playerFilterFile.delete()) {
+			plugin.getLogger().warning("Could not delete " + playerFilterFile.getName() + ".");
+		}
+
+		if (playerFilter != null) {
+			return;
+		}
+
+		try (final Statement statement = connection.createStatement()) {
+
+			// size filter for number of records, which is at least the number of players
+			long count = 0;
+			try (ResultSet rs = statement.executeQuery(Queries.getQuery("CountRecords"))) {
+				if (rs.next()) {
+					count = rs.getLong(1);
+				}
+			}
+
+			PlayerFilter newFilter = PlayerFilter.create(count);
+
+			// add player of every stored record, whether or not its world is loaded
+			statement.setFetchSize(Math.max(1, plugin.getConfig().getInt("storage-fetch-size", 1000)));
+			try (ResultSet rs = statement.executeQuery(Queries.getQuery("SelectAllRecordKeys"))) {
+				while (rs.next()) {
+					newFilter.add(RecordKey.fromBytes(rs.getBytes("recordKey")).getPlayerUid());
+				}
+			}
+
+			playerFilter = newFilter;
+			plugin.getLogger().info("Player filter built from " + count + " records.");
+		}
+	}
+
+
+	/**
+	 * Save player filter to file, after all writes have been committed
+	 */
+	private void savePlayerFilter() {
+
+		if (playerFilter == null) {
+			return;
+		}
+
+		try {
+			playerFilter.write(playerFilterFile);
+		}
+		catch (IOException e) {
+			plugin.getLogger().warning("Could not save " + playerFilterFile.getName() + ". "
+					+ "It will be rebuilt on next start.");
+			if (playerFilterFile.exists() && !playerFilterFile.delete()) {
+				plugin.getLogger().warning("Could not delete " + playerFilterFile.getName() + ".");
+			}
+		}
+	}
+
+
+	/**
+	 * Copy all rows of the schema v0 or v1 table into the schema v2 tables, then drop the
+	 * old table, in a single transaction. Rows are streamed, so memory use does not grow
+	 * with table size. Schema v1 rows are kept even if their world is not loaded; schema v0
+	 * rows are keyed by world name, so rows for worlds that are not loaded are skipped.
+	 *
+	 * @param fromVersion the schema version of the existing table
+	 * @return the number of records migrated
+	 * @throws SQLException if the migration failed; the database is left unchanged
+	 */
+	private int migrateLegacyTable(final int fromVersion) throws SQLException {
+
+		int count = 0;
+
+		connection.setAutoCommit(false);
+
+		try (final Statement statement = connection.createStatement();
+		     final ResultSet rs = statement.executeQuery(Queries.getQuery("SelectAllLocations"))) {
+
+			final PreparedStatement insertWorld = statementCache.get("InsertWorld");
+			final PreparedStatement insertRecord = statementCache.get("InsertRecord");
+			final Set<UUID> worldUids = new HashSet<>();
+
+			while (rs.next()) {
+
+				final UUID playerUid;
+				final UUID worldUid;
+
+				if (fromVersion == 0) {
+					final World world = plugin.getServer().getWorld(rs.getString("worldname"));
+					if (world == null) {
+						plugin.getLogger().warning("Stored record has invalid world: "
+								+ rs.getString("worldname") + ". Skipping record.");
+						continue;
+					}
+					try {
+						playerUid = UUID.fromString(rs.getString("playerid"));
+					}
+					catch (IllegalArgumentException e) {
+						if (plugin.getConfig().getBoolean("debug")) {
+							plugin.getLogger().warning("Player UUID in datastore is invalid!");
+						}
+						continue;
+					}
+					worldUid = world.getUID();
+				}
+				else {
+					playerUid = new UUID(rs.getLong("playerUidMsb"), rs.getLong("playerUidLsb"));
+					worldUid = new UUID(rs.getLong("worldUidMsb"), rs.getLong("worldUidLsb"));
+				}
+
+				// add each world to world table once
+				if (worldUids.add(worldUid)) {
+					insertWorld.setBytes(1, RecordKey.uidBytes(worldUid));
+					insertWorld.setString(2, rs.getString("worldname"));
+					insertWorld.executeUpdate();
+				}
+
+				insertRecord.setBytes(1, new RecordKey(playerUid, worldUid).toBytes());
+				insertRecord.setDouble(2, rs.getDouble("x"));
+				insertRecord.setDouble(3, rs.getDouble("y"));
+				insertRecord.setDouble(4, rs.getDouble("z"));
+				insertRecord.addBatch();
+
+				if (++count % MIGRATION_BATCH_SIZE == 0) {
+					insertRecord.executeBatch();
+				}
+			}
+			insertRecord.executeBatch();
+		}
+		catch (SQLException e) {
+			connection.rollback();
+			connection.setAutoCommit(true);
+			throw e;
+		}
+
+		try (final Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Queries.getQuery("DropDeathLocationTable"));
+			statement.executeUpdate("PRAGMA user_version = 2");
+			connection.commit();
+		}
+		catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		}
+		finally {
+			connection.setAutoCommit(true);
+		}
+
+		return count;
+	}
+
+
+	@Override
+	public Optional<DeathRecord> selectRecord(final UUID playerUUID, final UUID worldUID) {
+		final long startTime = System.nanoTime();
+		try {
+			return lookupRecord(playerUUID, worldUID, true);
+		}
+		finally {
+			metrics.recordLatency(StorageMetrics.Operation.SELECT_RECORD, startTime);
+		}
+	}
+
+
+	/**
+	 * Get record from cache, or from datastore on a cache miss
+	 *
+	 * @param playerUUID the player UUID of the record to be retrieved
+	 * @param worldUID   the world UID of the record to be retrieved
+	 * @param countCache true to count the lookup in cache hit and miss metrics
+	 * @return death record or empty optional if no matching record found
+	 */
+	private Optional<DeathRecord> lookupRecord(final UUID playerUUID, final UUID worldUID, final boolean countCache) {
+
+		// if key is null return null record
+		if (playerUUID == null) {
+			return Optional.empty();
+		}
+
+		// if world uid is null, return null record
+		if (worldUID == null) {
+			return Optional.empty();
+		}
+
+		// try cache first
+		Optional<DeathRecord> optionalDeathRecord = deathRecordCache.get(playerUUID, worldUID);
+
+		// if records of player are being loaded, wait for the load instead of querying again
+		if (optionalDeathRecord.isEmpty() && awaitPlayerLoad(playerUUID)) {
+			optionalDeathRecord = deathRecordCache.get(playerUUID, worldUID);
+		}
+
+		// if a record was returned from cache, return the record; otherwise try datastore
+		if (optionalDeathRecord.isPresent()) {
+			if (countCache) {
+				metrics.cacheHit();
+			}
+			return optionalDeathRecord;
+		}
+
+		// if datastore is known to have no record, return empty optional without a query
+		if (deathRecordCache.isAbsent(playerUUID, worldUID) || !playerFilter.mightContain(playerUUID)) {
+			if (countCache) {
+				metrics.cacheNegativeHit();
+			}
+			return Optional.empty();
+		}
+
+		if (countCache) {
+			metrics.cacheMiss();
+		}
+
+		// load records of player for all worlds in one query, so lookups for other worlds are served from cache
+		if (loadWholePlayer) {
+			selectRecordsForPlayer(playerUUID);
+			if (deathRecordCache.isPlayerLoaded(playerUUID)) {
+				return deathRecordCache.get(playerUUID, worldUID);
+			}
+		}
+
+		DeathRecord deathRecord = null;
+
+		// get uncommitted change of record before query, so a change committed meanwhile is seen by one or the other
+		final RecordKey recordKey = new RecordKey(playerUUID, worldUID);
+		final Optional<DeathRecord> pendingChange = dataStoreWriter.getPending(Set.of(playerUUID)).get(recordKey);
+
+		try (ReaderPool.Reader reader = readerPool.acquire()) {
+			PreparedStatement preparedStatement = reader.statements().get("SelectRecord");
+
+			preparedStatement.setBytes(1, recordKey.toBytes());
+
+			// execute sql query
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+
+				// only zero or one record can match the primary key
+				if (rs.next()) {
+
+					// get stored coordinates
+					double x = rs.getDouble("x");
+					double y = rs.getDouble("y");
+					double z = rs.getDouble("z");
+
+					// get server world by uid
+					World world = plugin.getServer().getWorld(worldUID);
+
+					if (world == null) {
+						plugin.getLogger().warning("World " + worldUID + " is not loaded!");
+						return Optional.empty();
+					}
+
+					deathRecord = new DeathRecord(playerUUID, worldUID, x, y, z);
+				}
+			}
+		}
+		catch (SQLException e) {
+
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while fetching a record from the SQLite database.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.getStackTrace();
+			}
+			return Optional.empty();
+		}
+
+		// an uncommitted change replaces the stored record
+		//noinspection OptionalAssignedToNull
+		if (pendingChange != null) {
+			deathRecord = pendingChange.orElse(null);
+		}
+
+		// put record, or absence of record, in cache unless a newer entry was cached meanwhile
+		if (deathRecord != null) {
+			deathRecordCache.putIfAbsent(deathRecord);
+		}
+		else {
+			deathRecordCache.putAbsentIfAbsent(playerUUID, worldUID);
+		}
+
+		// return record
+		return Optional.ofNullable(deathRecord);
+	}
+
+
+	/**
+	 * Load all death records of a connecting player into the cache, so lookups on join
+	 * and world change are served from memory. This event is fired off the main thread,
+	 * so the handler waits for the load. Logins arriving together share one bulk query.
+	 *
+	 * @param event the event handled by this method
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	void onAsyncPlayerPreLogin(final AsyncPlayerPreLoginEvent event) {
+
+		// if login was denied, do nothing and return
+		if (!event.getLoginResult().equals(AsyncPlayerPreLoginEvent.Result.ALLOWED)) {
+			return;
+		}
+
+		try {
+			playerRecordLoader.load(event.getUniqueId()).get(PRELOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (Exception e) {
+			// records will be loaded on demand instead
+			if (plugin.getConfig().getBoolean("debug")) {
+				plugin.getLogger().warning("Could not preload death records for " + event.getName() + ".");
+			}
+		}
+	}
+
+
+	/**
+	 * Load records of online players when a world is loaded, if enabled in config, so lookups
+	 * in the new world are served from memory. Handled after the cache has removed the loaded
+	 * mark of all players, so the load marks online players as loaded again.
+	 *
+	 * @param event the event handled by this method
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	void onWorldLoad(final WorldLoadEvent event) {
+		if (preloadOnWorldLoad) {
+			loadOnlinePlayers();
+		}
+	}
+
+
+	@Override
+	public Collection<DeathRecord> selectRecordsForPlayer(final UUID playerUid) {
+
+		// if player uid is null, or player has no stored records, return empty collection
+		if (playerUid == null || !playerFilter.mightContain(playerUid)) {
+			return Collections.emptyList();
+		}
+
+		// get uncommitted changes before query, so a change committed meanwhile is seen by one or the other
+		final Map<RecordKey, Optional<DeathRecord>> pendingChanges = dataStoreWriter.getPending(Set.of(playerUid));
+
+		// get world load count before query, since records of a world loaded meanwhile are skipped
+		final int worldLoads = deathRecordCache.getWorldLoads();
+
+		Collection<DeathRecord> returnSet = new ArrayList<>();
+		boolean complete = false;
+
+		try (ReaderPool.Reader reader = readerPool.acquire()) {
+			PreparedStatement preparedStatement = reader.statements().get("SelectPlayerRecords");
+
+			// all keys of player sort between lower and upper bound
+			preparedStatement.setBytes(1, RecordKey.lowerBound(playerUid));
+			preparedStatement.setBytes(2, RecordKey.upperBound(playerUid));
+
+			// execute sql query
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()) {
+					readRecord(rs).ifPresent(returnSet::add);
+				}
+			}
+			complete = true;
+		}
+		catch (SQLException e) {
+
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while fetching player records from the SQLite database.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
+			}
+		}
+
+		// apply changes not yet committed when query ran
+		returnSet = applyPending(returnSet, pendingChanges);
+
+		// put records in cache, marking player as loaded if query completed
+		if (complete) {
+			deathRecordCache.putPlayer(playerUid, returnSet, worldLoads);
+		}
+		else {
+			for (DeathRecord deathRecord : returnSet) {
+				deathRecordCache.putIfAbsent(deathRecord);
+			}
+		}
+
+		return returnSet;
+	}
+
+
+	@Override
+	public Collection<DeathRecord> selectRecords(final Collection<UUID> playerUids) {
+
+		// if collection is null or empty, return empty collection
+		if (playerUids == null || playerUids.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		// query only players that may have stored records
+		final Set<UUID> uidSet = new HashSet<>();
+		for (UUID playerUid : playerUids) {
+			if (playerFilter.mightContain(playerUid)) {
+				uidSet.add(playerUid);
+			}
+		}
+
+		if (uidSet.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		final List<UUID> uidList = new ArrayList<>(uidSet);
+
+		// get uncommitted changes before query, so a change committed meanwhile is seen by one or the other
+		final Map<RecordKey, Optional<DeathRecord>> pendingChanges = dataStoreWriter.getPending(uidSet);
+
+		// get world load count before query, since records of a world loaded meanwhile are skipped
+		final int worldLoads = deathRecordCache.getWorldLoads();
+
+		Collection<DeathRecord> returnSet = new ArrayList<>();
+		boolean complete = false;
+
+		try (ReaderPool.Reader reader = readerPool.acquire()) {
+
+			// every chunk uses the same statement; the last chunk is padded with empty bounds, which
+			// match no key, since repeating a player's bounds would return its records twice
+			PreparedStatement preparedStatement = reader.statements().get("SelectPlayersRecords", "(?,?)", SELECT_CHUNK_SIZE);
+
+			for (int start = 0; start < uidList.size(); start += SELECT_CHUNK_SIZE) {
+
+				for (int i = 0; i < SELECT_CHUNK_SIZE; i++) {
+					if (start + i < uidList.size()) {
+						UUID playerUid = uidList.get(start + i);
+						preparedStatement.setBytes(i * 2 + 1, RecordKey.lowerBound(playerUid));
+						preparedStatement.setBytes(i * 2 + 2, RecordKey.upperBound(playerUid));
+					}
+					else {
+						preparedStatement.setBytes(i * 2 + 1, EMPTY_BOUND);
+						preparedStatement.setBytes(i * 2 + 2, EMPTY_BOUND);
+					}
+				}
+
+				// execute sql query
+				try (ResultSet rs = preparedStatement.executeQuery()) {
+					while (rs.next()) {
+						readRecord(rs).ifPresent(returnSet::add);
+					}
+				}
+			}
+			complete = true;
+		}
+		catch (SQLException e) {
+
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while fetching records for "
+					+ uidList.size() + " players from the SQLite database.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
+			}
+		}
 
-		// create a database connection
-		connection = DriverManager.getConnection(dbUrl);
+		// apply changes not yet committed when query ran
+		returnSet = applyPending(returnSet, pendingChanges);
 
-		// update database schema if necessary
-		updateSchema();
+		// put records in cache, marking players as loaded if query completed
+		if (complete) {
+			final Map<UUID, Collection<DeathRecord>> playerRecords = new HashMap<>();
+			for (UUID playerUid : uidList) {
+				playerRecords.put(playerUid, new ArrayList<>());
+			}
+			for (DeathRecord deathRecord : returnSet) {
+				playerRecords.get(deathRecord.getPlayerUid()).add(deathRecord);
+			}
+			for (Map.Entry<UUID, Collection<DeathRecord>> entry : playerRecords.entrySet()) {
+				deathRecordCache.putPlayer(entry.getKey(), entry.getValue(), worldLoads);
+			}
+		}
+		else {
+			for (DeathRecord deathRecord : returnSet) {
+				deathRecordCache.putIfAbsent(deathRecord);
+			}
+		}
 
-		// set initialized true
-		setInitialized(true);
-		plugin.getLogger().info(this + " datastore initialized.");
+		return returnSet;
 	}
 
 
-	private int getSchemaVersion() {
-
-		int version = -1;
+	/**
+	 * Apply changes not yet committed to records read from the database
+	 *
+	 * @param deathRecords   the records read from the database
+	 * @param pendingChanges the uncommitted changes of the queried players, taken before the query
+	 * @return the current records, excluding records of worlds that are not loaded
+	 */
+	private Collection<DeathRecord> applyPending(final Collection<DeathRecord> deathRecords,
+	                                             final Map<RecordKey, Optional<DeathRecord>> pendingChanges) {
 
-		try {
-			final Statement statement = connection.createStatement();
+		if (pendingChanges.isEmpty()) {
+			return deathRecords;
+		}
 
-			ResultSet rs = statement.executeQuery(Queries.getQuery("GetUserVersion"));
+		final Map<RecordKey, DeathRecord> records = new LinkedHashMap<>();
+		for (DeathRecord deathRecord : deathRecords) {
+			records.put(RecordKey.of(deathRecord), deathRecord);
+		}
 
-			while (rs.next()) {
-				version = rs.getInt(1);
+		for (Map.Entry<RecordKey, Optional<DeathRecord>> entry : pendingChanges.entrySet()) {
+			final Optional<DeathRecord> change = entry.getValue();
+			if (change.isPresent() && plugin.getServer().getWorld(change.get().getWorldUid()) != null) {
+				records.put(entry.getKey(), change.get());
+			}
+			else {
+				records.remove(entry.getKey());
 			}
 		}
-		catch (SQLException e) {
-			plugin.getLogger().warning("Could not get schema version!");
-		}
-		return version;
+
+		return new ArrayList<>(records.values());
 	}
 
 
-	private void updateSchema() throws SQLException {
+	/**
+	 * Create death record from current row of a schema v2 result set
+	 *
+	 * @param rs the result set positioned at a row
+	 * @return death record, or empty optional if record world is not loaded
+	 * @throws SQLException if a column could not be read
+	 */
+	private Optional<DeathRecord> readRecord(final ResultSet rs) throws SQLException {
+
+		final DeathRecord deathRecord = readAnyRecord(rs);
+
+		// skip records for worlds that are not loaded
+		if (plugin.getServer().getWorld(deathRecord.getWorldUid()) == null) {
+			return Optional.empty();
+		}
+
+		return Optional.of(deathRecord);
+	}
 
-		schemaVersion = getSchemaVersion();
 
-		final Statement statement = connection.createStatement();
+	/**
+	 * Create death record from current row of a schema v2 result set, whether or not
+	 * the record world is loaded
+	 *
+	 * @param rs the result set positioned at a row
+	 * @return death record
+	 * @throws SQLException if a column could not be read
+	 */
+	private DeathRecord readAnyRecord(final ResultSet rs) throws SQLException {
 
-		if (schemaVersion == 0) {
-			int count;
+		final RecordKey recordKey = RecordKey.fromBytes(rs.getBytes("recordKey"));
 
-			// check for existing table
-			ResultSet rs = statement.executeQuery(Queries.getQuery("SelectDeathLocationTable"));
-			if (rs.next()) {
+		return new DeathRecord(recordKey.getPlayerUid(), recordKey.getWorldUid(),
+				rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"));
+	}
 
-				// get existing records
-				Collection<DeathRecord> existingRecords = selectAllRecords();
 
-				// drop schema v0 table
-				statement.executeUpdate(Queries.getQuery("DropDeathLocationTable"));
+	@Override
+	public Collection<DeathRecord> selectAllRecords() {
 
-				// create schema v1 table
-				statement.executeUpdate(Queries.getQuery("CreateDeathLocationTable"));
+		final long startTime = System.nanoTime();
 
-				// insert existing records in new table
-				count = insertRecords(existingRecords);
-				plugin.getLogger().info(count + " records migrated to table schema v1.");
-			}
+		Collection<DeathRecord> returnSet = new HashSet<>();
 
-			// update schema version in database
-			statement.executeUpdate("PRAGMA user_version = 1");
+		forEachRecord(returnSet::add);
 
-			// update schema version field
-			schemaVersion = 1;
-		}
+		metrics.recordLatency(StorageMetrics.Operation.SELECT_ALL_RECORDS, startTime);
 
-		// execute table creation statement
-		statement.executeUpdate(Queries.getQuery("CreateDeathLocationTable"));
+		// return results
+		return returnSet;
 	}
 
 
 	@Override
-	public synchronized Optional<DeathRecord> selectRecord(final UUID playerUUID, final UUID worldUID) {
+	public int forEachRecord(final Consumer<DeathRecord> consumer) {
 
-		// if key is null return null record
-		if (playerUUID == null) {
-			return Optional.empty();
-		}
+		int count = 0;
+		int skipped = 0;
 
-		// if world uid is null, return null record
-		if (worldUID == null) {
-			return Optional.empty();
-		}
+		try (ReaderPool.Reader reader = readerPool.acquire()) {
+			PreparedStatement preparedStatement = reader.statements().get("SelectAllRecords");
 
-		// get player uuid components
-		final long playerUidMsb = playerUUID.getMostSignificantBits();
-		final long playerUidLsb = playerUUID.getLeastSignificantBits();
+			// rows are read forward only, a fetch size at a time
+			preparedStatement.setFetchSize(Math.max(1, plugin.getConfig().getInt("storage-fetch-size", 1000)));
 
-		// get world uid components
-		final long worldUidMsb = worldUID.getMostSignificantBits();
-		final long worldUidLsb = worldUID.getLeastSignificantBits();
+			// execute sql query
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()) {
+
+					// decode key and skip records for worlds that are not loaded
+					Optional<DeathRecord> optionalDeathRecord = readRecord(rs);
+					if (optionalDeathRecord.isPresent()) {
+						consumer.accept(optionalDeathRecord.get());
+						count++;
+					}
+					else {
+						skipped++;
+					}
+				}
+			}
+		}
+		catch (SQLException e) {
 
-		// try cache first
-		Optional<DeathRecord> optionalDeathRecord = deathRecordCache.get(playerUUID, worldUID);
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while trying "
+					+ "to fetch all records from the SQLite database.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
 
-		// if a record was returned from cache, return the record; otherwise try datastore
-		if (optionalDeathRecord.isPresent()) {
-			return optionalDeathRecord;
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
+			}
 		}
 
-		DeathRecord deathRecord = null;
-
-		try {
-			PreparedStatement preparedStatement = connection.prepareStatement(Queries.getQuery("SelectLocation"));
+		// log count of records skipped for worlds that are not loaded
+		if (skipped > 0) {
+			plugin.getLogger().warning(skipped + " stored records have worlds that are not loaded. Skipping records.");
+		}
 
-			preparedStatement.setLong(1, playerUidMsb);
-			preparedStatement.setLong(2, playerUidLsb);
-			preparedStatement.setLong(3, worldUidMsb);
-			preparedStatement.setLong(4, worldUidLsb);
+		return count;
+	}
 
-			// execute sql query
-			ResultSet rs = preparedStatement.executeQuery();
 
-			// only zero or one record can match the unique key
-			if (rs.next()) {
+	@Override
+	public long countRecords() {
 
-				// get stored world and coordinates
-				String worldName = rs.getString("worldname");
-				double x = rs.getDouble("x");
-				double y = rs.getDouble("y");
-				double z = rs.getDouble("z");
+		long count = 0;
 
-				// get server world by uid
-				World world = plugin.getServer().getWorld(worldUID);
+		try (ReaderPool.Reader reader = readerPool.acquire()) {
+			PreparedStatement preparedStatement = reader.statements().get("CountRecords");
 
-				if (world == null) {
-					plugin.getLogger().warning("World " + worldName + " is not loaded!");
-					return Optional.empty();
+			// execute sql query
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				if (rs.next()) {
+					count = rs.getLong(1);
 				}
-
-				deathRecord = new DeathRecord(playerUUID, worldUID, x, y, z);
 			}
 		}
 		catch (SQLException e) {
 
 			// output simple error message
-			plugin.getLogger().warning("An error occurred while fetching a record from the SQLite database.");
+			plugin.getLogger().warning("An error occurred while counting records in the SQLite database.");
 			plugin.getLogger().warning(e.getLocalizedMessage());
 
 			// if debugging is enabled, output stack trace
 			if (plugin.getConfig().getBoolean("debug")) {
-				e.getStackTrace();
+				e.printStackTrace();
 			}
-			return Optional.empty();
-		}
-
-		// if record is not null, put record in cache
-		if (deathRecord != null) {
-			deathRecordCache.put(deathRecord);
+			throw new IllegalStateException("Could not read records from SQLite database.", e);
 		}
 
-		// return record
-		return Optional.ofNullable(deathRecord);
+		return count;
 	}
 
 
 	@Override
-	public synchronized Collection<DeathRecord> selectAllRecords() {
+	public List<DeathRecord> selectRecordsAfter(final DeathRecord after, final int limit) {
 
-		Collection<DeathRecord> returnSet = new HashSet<>();
+		final List<DeathRecord> returnList = new ArrayList<>();
 
-		try {
-			PreparedStatement preparedStatement = connection.prepareStatement(Queries.getQuery("SelectAllLocations"));
+		try (ReaderPool.Reader reader = readerPool.acquire()) {
+			PreparedStatement preparedStatement = reader.statements().get("SelectRecordsAfter");
+
+			// every stored key sorts after an empty key
+			preparedStatement.setBytes(1, after == null ? new byte[0] : RecordKey.of(after).toBytes());
+			preparedStatement.setInt(2, limit);
 
 			// execute sql query
-			ResultSet rs = preparedStatement.executeQuery();
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()) {
+					returnList.add(readAnyRecord(rs));
+				}
+			}
+		}
+		catch (SQLException e) {
 
-			while (rs.next()) {
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while fetching a page of records from the SQLite database.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
 
-				if (schemaVersion == 0) {
-					String key = rs.getString("playerid");
-					String worldName = rs.getString("worldname");
-					double x = rs.getDouble("x");
-					double y = rs.getDouble("y");
-					double z = rs.getDouble("z");
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
+			}
+			throw new IllegalStateException("Could not read records from SQLite database.", e);
+		}
 
-					World world = plugin.getServer().getWorld(worldName);
+		return returnList;
+	}
 
-					if (world == null) {
-						plugin.getLogger().warning("Stored record has invalid world: "
-								+ worldName + ". Skipping record.");
-						continue;
-					}
 
-					// convert key string to UUID
-					UUID playerUUID = null;
-					try {
-						playerUUID = UUID.fromString(key);
-					}
-					catch (Exception e) {
-						if (plugin.getConfig().getBoolean("debug")) {
-							plugin.getLogger().warning("Player UUID in datastore is invalid!");
-						}
-					}
+	@Override
+	public Collection<DeathRecord> selectRecordsByKey(final Collection<DeathRecord> deathRecords) {
 
-					// if playerUUID is not null, add record to return list
-					if (playerUUID != null) {
-						DeathRecord deathRecord = new DeathRecord(playerUUID, world.getUID(), x, y, z);
-						returnSet.add(deathRecord);
-					}
-				}
+		// if collection is null or empty, return empty collection
+		if (deathRecords == null || deathRecords.isEmpty()) {
+			return Collections.emptyList();
+		}
 
-				// if schema version 1, try to get world by uuid
-				else if (schemaVersion == 1) {
+		final List<DeathRecord> keyList = new ArrayList<>(deathRecords);
+		final Collection<DeathRecord> returnSet = new ArrayList<>();
 
-					long playerUidMsb = rs.getLong("playerUidMsb");
-					long playerUidLsb = rs.getLong("playerUidLsb");
-					String worldName = rs.getString("worldname");
-					long worldUidMsb = rs.getLong("worldUidMsb");
-					long worldUidLsb = rs.getLong("worldUidLsb");
-					double x = rs.getDouble("x");
-					double y = rs.getDouble("y");
-					double z = rs.getDouble("z");
+		try (ReaderPool.Reader reader = readerPool.acquire()) {
 
-					World world = plugin.getServer().getWorld(new UUID(worldUidMsb, worldUidLsb));
+			// every chunk uses the same statement; the last chunk is padded by repeating its final key
+			PreparedStatement preparedStatement = reader.statements().get("SelectRecordsByKey", "?", SELECT_CHUNK_SIZE);
 
-					if (world == null) {
-						plugin.getLogger().warning("Stored record has invalid world: "
-								+ worldName + ". Skipping record.");
-						continue;
-					}
+			for (int start = 0; start < keyList.size(); start += SELECT_CHUNK_SIZE) {
 
-					// convert components to player uuid
-					UUID playerUUID = new UUID(playerUidMsb, playerUidLsb);
+				for (int i = 0; i < SELECT_CHUNK_SIZE; i++) {
+					DeathRecord deathRecord = keyList.get(Math.min(start + i, keyList.size() - 1));
+					preparedStatement.setBytes(i + 1, RecordKey.of(deathRecord).toBytes());
+				}
 
-					DeathRecord deathRecord = new DeathRecord(playerUUID, world.getUID(), x, y, z);
-					returnSet.add(deathRecord);
+				// execute sql query
+				try (ResultSet rs = preparedStatement.executeQuery()) {
+					while (rs.next()) {
+						returnSet.add(readAnyRecord(rs));
+					}
 				}
 			}
 		}
-		catch (Exception e) {
+		catch (SQLException e) {
 
 			// output simple error message
-			plugin.getLogger().warning("An error occurred while trying "
-					+ "to fetch all records from the SQLite database.");
+			plugin.getLogger().warning("An error occurred while fetching records by key from the SQLite database.");
 			plugin.getLogger().warning(e.getLocalizedMessage());
 
 			// if debugging is enabled, output stack trace
 			if (plugin.getConfig().getBoolean("debug")) {
-				e.getStackTrace();
+				e.printStackTrace();
 			}
+			throw new IllegalStateException("Could not read records from SQLite database.", e);
 		}
 
-		// return results
 		return returnSet;
 	}
 
 
 	@Override
-	public synchronized void insertRecord(final DeathRecord deathRecord) {
-
-		// if record is null do nothing and return
-		if (deathRecord == null) {
-			return;
-		}
-
-		// cache death record
-		deathRecordCache.put(deathRecord);
+	public Optional<DeathRecord> getConversionCheckpoint(final DataStoreType sourceType) {
 
-		// get player uid components
-		final long playerUidMsb = deathRecord.getPlayerUid().getMostSignificantBits();
-		final long playerUidLsb = deathRecord.getPlayerUid().getLeastSignificantBits();
+		try (ReaderPool.Reader reader = readerPool.acquire()) {
+			PreparedStatement preparedStatement = reader.statements().get("SelectConversion");
 
-		// get world
-		final World world = plugin.getServer().getWorld(deathRecord.getWorldUid());
+			preparedStatement.setString(1, sourceType.name());
 
-		// if world is null, log message and return
-		if (world == null) {
-			plugin.getLogger().warning("An error occurred while inserting"
-					+ " a record in the SQLite database. World invalid!");
-			return;
+			// execute sql query
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				if (rs.next()) {
+					return Optional.of(readAnyRecord(rs));
+				}
+			}
+		}
+		catch (SQLException e) {
+			plugin.getLogger().warning("An error occurred while reading the conversion checkpoint.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
 		}
 
-		// get world name
-		final String worldName = world.getName();
+		return Optional.empty();
+	}
 
-		// get world uid components
-		final long worldUidMsb = world.getUID().getMostSignificantBits();
-		final long worldUidLsb = world.getUID().getLeastSignificantBits();
 
-		new BukkitRunnable() {
-			@Override
-			public void run() {
-				try {
-					// create prepared statement
-					PreparedStatement preparedStatement = connection.prepareStatement(Queries.getQuery("InsertLocation"));
+	@Override
+	public void setConversionCheckpoint(final DataStoreType sourceType, final DeathRecord lastRecord) {
+
+		synchronized (writeLock) {
+			try {
+				PreparedStatement preparedStatement = statementCache.get("InsertConversion");
+
+				preparedStatement.setString(1, sourceType.name());
+				preparedStatement.setBytes(2, RecordKey.of(lastRecord).toBytes());
+				preparedStatement.setDouble(3, lastRecord.getX());
+				preparedStatement.setDouble(4, lastRecord.getY());
+				preparedStatement.setDouble(5, lastRecord.getZ());
+				preparedStatement.executeUpdate();
+			}
+			catch (SQLException e) {
+				plugin.getLogger().warning("An error occurred while saving the conversion checkpoint.");
+				plugin.getLogger().warning(e.getLocalizedMessage());
+			}
+		}
+	}
 
-					preparedStatement.setLong(1, playerUidMsb);
-					preparedStatement.setLong(2, playerUidLsb);
-					preparedStatement.setString(3, worldName);
-					preparedStatement.setLong(4, worldUidMsb);
-					preparedStatement.setLong(5, worldUidLsb);
-					preparedStatement.setDouble(6, deathRecord.getX());
-					preparedStatement.setDouble(7, deathRecord.getY());
-					preparedStatement.setDouble(8, deathRecord.getZ());
 
-					// execute prepared statement
-					preparedStatement.executeUpdate();
-				}
-				catch (Exception e) {
+	@Override
+	public void clearConversionCheckpoint(final DataStoreType sourceType) {
 
-					// output simple error message
-					plugin.getLogger().warning("An error occurred while inserting a record into the SQLite database.");
-					plugin.getLogger().warning(e.getLocalizedMessage());
+		synchronized (writeLock) {
+			try {
+				PreparedStatement preparedStatement = statementCache.get("DeleteConversion");
 
-					// if debugging is enabled, output stack trace
-					if (plugin.getConfig().getBoolean("debug")) {
-						e.getStackTrace();
-					}
-				}
+				preparedStatement.setString(1, sourceType.name());
+				preparedStatement.executeUpdate();
+			}
+			catch (SQLException e) {
+				plugin.getLogger().warning("An error occurred while removing the conversion checkpoint.");
+				plugin.getLogger().warning(e.getLocalizedMessage());
 			}
-		}.runTaskAsynchronously(plugin);
+		}
 	}
 
 
 	@Override
-	public synchronized int insertRecords(final Collection<DeathRecord> deathRecords) {
+	public void insertRecord(final DeathRecord deathRecord) {
 
 		// if record is null do nothing and return
-		if (deathRecords == null) {
-			return 0;
+		if (deathRecord == null) {
+			return;
 		}
 
-		int count = 0;
+		final long startTime = System.nanoTime();
 
-		for (DeathRecord deathRecord : deathRecords) {
+		// add player to filter before record can be looked up
+		playerFilter.add(deathRecord.getPlayerUid());
+
+		// cache death record
+		deathRecordCache.put(deathRecord);
 
-			// cache death record
-			deathRecordCache.put(deathRecord);
+		// queue record for writer thread
+		dataStoreWriter.enqueue(deathRecord);
 
-			// get player uid components
-			final long playerUidMsb = deathRecord.getPlayerUid().getMostSignificantBits();
-			final long playerUidLsb = deathRecord.getPlayerUid().getLeastSignificantBits();
+		metrics.recordLatency(StorageMetrics.Operation.INSERT_RECORD, startTime);
+	}
 
-			// get world
-			final World world = plugin.getServer().getWorld(deathRecord.getWorldUid());
 
-			// if world is null, skip to next record
-			if (world == null) {
-				plugin.getLogger().warning("An error occurred while inserting"
-						+ " a record in the SQLite database. World invalid!");
-				continue;
-			}
+	@Override
+	public int insertRecords(final Collection<DeathRecord> deathRecords) {
 
-			// get world name
-			final String worldName = world.getName();
+		// if record is null do nothing and return
+		if (deathRecords == null) {
+			return 0;
+		}
 
-			// get world uid components
-			final long worldUidMsb = world.getUID().getMostSignificantBits();
-			final long worldUidLsb = world.getUID().getLeastSignificantBits();
+		final int chunkSize = Math.max(1, plugin.getConfig().getInt("storage-insert-chunk-size", 1000));
+		final int total = deathRecords.size();
+		final List<DeathRecord> chunk = new ArrayList<>(Math.min(chunkSize, total));
 
-			new BukkitRunnable() {
-				@Override
-				public void run() {
-					try {
-						// create prepared statement
-						PreparedStatement preparedStatement = connection.prepareStatement(Queries.getQuery("InsertLocation"));
+		int count = 0;
+		int chunks = 0;
+		int lastReported = 0;
 
-						preparedStatement.setLong(1, playerUidMsb);
-						preparedStatement.setLong(2, playerUidLsb);
-						preparedStatement.setString(3, worldName);
-						preparedStatement.setLong(4, worldUidMsb);
-						preparedStatement.setLong(5, worldUidLsb);
-						preparedStatement.setDouble(6, deathRecord.getX());
-						preparedStatement.setDouble(7, deathRecord.getY());
-						preparedStatement.setDouble(8, deathRecord.getZ());
+		// only an insert larger than one chunk reports its own progress; a conversion
+		// inserts one chunk at a time and reports overall progress itself
+		final boolean reportProgress = total > chunkSize;
 
+		// write records in transactions of one chunk each
+		for (DeathRecord deathRecord : deathRecords) {
 
-						// execute prepared statement
-						preparedStatement.executeUpdate();
-					}
-					catch (Exception e) {
+			// add player to filter, and update cached record without caching records that are not already cached
+			playerFilter.add(deathRecord.getPlayerUid());
+			deathRecordCache.update(deathRecord);
 
-						// output simple error message
-						plugin.getLogger().warning("An error occurred while inserting a record into the SQLite database.");
-						plugin.getLogger().warning(e.getLocalizedMessage());
+			chunk.add(deathRecord);
+			if (chunk.size() >= chunkSize) {
+				count += dataStoreWriter.writeRecords(chunk);
+				chunk.clear();
 
-						// if debugging is enabled, output stack trace
-						if (plugin.getConfig().getBoolean("debug")) {
-							e.getStackTrace();
-						}
-					}
+				// report progress at every ten percent
+				int percent = (int) (++chunks * (long) chunkSize * 100 / total);
+				if (reportProgress && percent / 10 > lastReported / 10) {
+					lastReported = percent;
+					plugin.getLogger().info("Inserted " + count + " of " + total + " records (" + percent + "%).");
 				}
-			}.runTaskAsynchronously(plugin);
-			count++;
+			}
+		}
+		count += dataStoreWriter.writeRecords(chunk);
+
+		// log records that could not be written
+		if (count < total) {
+			plugin.getLogger().warning((total - count) + " of " + total + " records could not be inserted.");
 		}
+
 		return count;
 	}
 
 
 	@Override
-	public synchronized Optional<DeathRecord> deleteRecord(final UUID playerUid, final UUID worldUid) {
+	public Optional<DeathRecord> deleteRecord(final UUID playerUid, final UUID worldUid) {
+		final long startTime = System.nanoTime();
+		try {
+			return removeRecord(playerUid, worldUid);
+		}
+		finally {
+			metrics.recordLatency(StorageMetrics.Operation.DELETE_RECORD, startTime);
+		}
+	}
+
+
+	/**
+	 * Delete record from datastore, and cache it as absent
+	 *
+	 * @param playerUid the player uuid of the record to delete
+	 * @param worldUid  the world uid of the record to delete
+	 * @return the record that was deleted, or empty optional if no record was found
+	 */
+	private Optional<DeathRecord> removeRecord(final UUID playerUid, final UUID worldUid) {
 
 		// if player uuid is null return null record
 		if (playerUid == null) {
@@ -488,56 +1333,77 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 			return Optional.empty();
 		}
 
-		// get player uid components
-		final long playerUidMsb = playerUid.getMostSignificantBits();
-		final long playerUidLsb = playerUid.getLeastSignificantBits();
-
-		// get world uid components
-		final long worldUidMsb = worldUid.getMostSignificantBits();
-		final long worldUidLsb = worldUid.getLeastSignificantBits();
+		// get destination record to be deleted, for return; not counted as a select in metrics
+		Optional<DeathRecord> optionalDeathRecord = lookupRecord(playerUid, worldUid, false);
 
-		// get destination record to be deleted, for return
-		Optional<DeathRecord> optionalDeathRecord = selectRecord(playerUid, worldUid);
+		// cache record as absent
+		deathRecordCache.remove(playerUid, worldUid);
 
-		try {
-			// create prepared statement
-			PreparedStatement preparedStatement = connection.prepareStatement(Queries.getQuery("DeleteLocation"));
+		// queue delete behind any record already queued or being written, so the record is not written after delete
+		dataStoreWriter.enqueueDelete(new RecordKey(playerUid, worldUid));
 
-			preparedStatement.setLong(1, playerUidMsb);
-			preparedStatement.setLong(2, playerUidLsb);
-			preparedStatement.setLong(3, worldUidMsb);
-			preparedStatement.setLong(4, worldUidLsb);
+		return optionalDeathRecord;
+	}
 
-			// execute prepared statement
-			int rowsAffected = preparedStatement.executeUpdate();
 
-			// output debugging information
-			if (plugin.getConfig().getBoolean("debug")) {
-				plugin.getLogger().info(rowsAffected + " rows deleted.");
-			}
-		}
-		catch (Exception e) {
+	@Override
+	public Executor getExecutor() {
+		return executor;
+	}
 
-			// output simple error message
-			plugin.getLogger().warning("An error occurred while attempting "
-					+ "to delete a record from the SQLite database.");
-			plugin.getLogger().warning(e.getLocalizedMessage());
 
-			// if debugging is enabled, output stack trace
-			if (plugin.getConfig().getBoolean("debug")) {
-				e.getStackTrace();
-			}
-		}
-		return optionalDeathRecord;
+	@Override
+	public StorageMetrics getMetrics() {
+		return metrics;
 	}
 
 
 	@Override
 	public void close() {
 
+		// unregister event handlers for this datastore and its cache
+		HandlerList.unregisterAll(this);
+		deathRecordCache.close();
+
+		// cancel checkpoint task
+		if (checkpointTask != null) {
+			checkpointTask.stop();
+		}
+
+		// stop accepting asynchronous operations and wait for running operations to finish
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+					plugin.getLogger().warning("Datastore executor did not finish before timeout.");
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// stop writer thread, committing any queued records
+		if (dataStoreWriter != null) {
+			dataStoreWriter.shutdown();
+		}
+
+		// close prepared statements
+		if (statementCache != null) {
+			statementCache.close();
+		}
+
+		// close reader connections
+		if (readerPool != null) {
+			readerPool.close();
+		}
+
 		try {
 			connection.close();
 			plugin.getLogger().info("SQLite database connection closed.");
+
+			// save player filter after database file is last modified
+			savePlayerFilter();
 		}
 		catch (Exception e) {
 
@@ -557,8 +1423,15 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 	@Override
 	public void sync() {
 
-		// no action necessary for this storage type
-
+		// wait for writer thread to commit queued records
+		try {
+			if (!dataStoreWriter.flush(10, TimeUnit.SECONDS)) {
+				plugin.getLogger().warning("Datastore writer did not finish queued records before timeout.");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 
@@ -571,6 +1444,11 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 		if (dataStoreFile.exists()) {
 			result = dataStoreFile.delete();
 		}
+
+		// delete saved player filter
+		if (playerFilterFile.exists() && !playerFilterFile.delete()) {
+			plugin.getLogger().warning("Could not delete " + playerFilterFile.getName() + ".");
+		}
 		return result;
 	}
 
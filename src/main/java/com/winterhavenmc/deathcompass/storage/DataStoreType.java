@@ -17,12 +17,11 @@
 
 package com.winterhavenmc.deathcompass.storage;
 
+import com.winterhavenmc.deathcompass.PluginMain;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.*;
 
 
 /**
@@ -138,73 +137,197 @@ enum DataStoreType {
 
 
 	/**
-	 * convert old data store to new data store
+	 * Copy records from old datastore to new datastore, starting after the checkpoint saved
+	 * in the new datastore by an earlier, unfinished conversion
 	 *
 	 * @param oldDataStore the old datastore to be converted from
 	 * @param newDataStore the new datastore to be converted to
+	 * @return true if all records were copied, false if the copy was stopped
 	 */
-	static void convert(final JavaPlugin plugin, final DataStore oldDataStore, final DataStore newDataStore) {
+	static boolean copyRecords(final JavaPlugin plugin, final DataStore oldDataStore, final DataStore newDataStore) {
 
-		// if datastores are same type, do not convert
-		if (oldDataStore.getType().equals(newDataStore.getType())) {
-			return;
-		}
+		final int chunkSize = Math.max(1, plugin.getConfig().getInt("storage-insert-chunk-size", 1000));
 
-		// if old datastore file exists, attempt to read all records
-		if (oldDataStore.getType().storageObjectExists(plugin)) {
+		// get last record copied by an earlier conversion, if any
+		DeathRecord checkpoint = newDataStore.getConversionCheckpoint(oldDataStore.getType()).orElse(null);
 
+		if (checkpoint == null) {
 			plugin.getLogger().info("Converting existing " + oldDataStore + " datastore to "
 					+ newDataStore + " datastore...");
+		}
+		else {
+			plugin.getLogger().info("Resuming conversion of " + oldDataStore + " datastore to "
+					+ newDataStore + " datastore...");
+		}
 
-			// initialize old datastore
-			if (!oldDataStore.isInitialized()) {
-				try {
-					oldDataStore.initialize();
-				}
-				catch (Exception e) {
-					plugin.getLogger().warning("Could not initialize "
-							+ oldDataStore + " datastore for conversion.");
-					plugin.getLogger().warning(e.getLocalizedMessage());
-					return;
+		// count records to report progress of whole conversion; a resumed conversion
+		// reports only the records copied since it resumed
+		final long total = oldDataStore.countRecords();
+
+		int count = 0;
+		long lastReported = 0;
+		List<DeathRecord> chunk = oldDataStore.selectRecordsAfter(checkpoint, chunkSize);
+
+		while (!chunk.isEmpty()) {
+
+			// if new datastore was closed, stop copying; conversion resumes on next start
+			if (!newDataStore.isInitialized()) {
+				plugin.getLogger().info("Conversion of " + oldDataStore + " datastore paused after "
+						+ count + " records.");
+				return false;
+			}
+
+			// only advance checkpoint when the whole chunk was written
+			if (newDataStore.insertRecords(chunk) < chunk.size()) {
+				plugin.getLogger().warning("Conversion of " + oldDataStore + " datastore stopped after "
+						+ count + " records.");
+				return false;
+			}
+
+			count += chunk.size();
+			checkpoint = chunk.get(chunk.size() - 1);
+			newDataStore.setConversionCheckpoint(oldDataStore.getType(), checkpoint);
+
+			// report progress at every ten percent
+			if (total > 0) {
+				long percent = Math.min(100, count * 100 / total);
+				if (percent / 10 > lastReported / 10) {
+					lastReported = percent;
+					plugin.getLogger().info("Converted " + count + " of " + total + " records (" + percent + "%).");
 				}
 			}
 
-			// get count of records inserted in new datastore
-			int count = newDataStore.insertRecords(oldDataStore.selectAllRecords());
+			chunk = oldDataStore.selectRecordsAfter(checkpoint, chunkSize);
+		}
+
+		// log record count message
+		plugin.getLogger().info(count + " records converted to new datastore.");
+
+		return true;
+	}
+
+
+	/**
+	 * Verify that every record of old datastore is stored unchanged in new datastore, by
+	 * comparing the count and checksum of old records with those of the matching new records
+	 *
+	 * @param oldDataStore the old datastore converted from
+	 * @param newDataStore the new datastore converted to
+	 * @param excludedKeys keys of records changed in new datastore since the copy, which are not compared
+	 * @return true if counts and checksums match, false if not
+	 */
+	static boolean verifyRecords(final JavaPlugin plugin, final DataStore oldDataStore, final DataStore newDataStore,
+	                             final Set<RecordKey> excludedKeys) {
+
+		final int chunkSize = Math.max(1, plugin.getConfig().getInt("storage-insert-chunk-size", 1000));
 
-			// log record count message
-			plugin.getLogger().info(count + " records converted to new datastore.");
+		long oldCount = 0;
+		long newCount = 0;
+		long oldChecksum = 0;
+		long newChecksum = 0;
 
-			// flush new datastore to disk if applicable
-			newDataStore.sync();
+		List<DeathRecord> chunk = oldDataStore.selectRecordsAfter(null, chunkSize);
 
-			// close old datastore
-			oldDataStore.close();
+		while (!chunk.isEmpty()) {
 
-			// delete old datastore storage object
-			oldDataStore.delete();
+			for (DeathRecord deathRecord : chunk) {
+				if (!excludedKeys.contains(RecordKey.of(deathRecord))) {
+					oldCount++;
+					oldChecksum += checksum(deathRecord);
+				}
+			}
+
+			for (DeathRecord deathRecord : newDataStore.selectRecordsByKey(chunk)) {
+				if (!excludedKeys.contains(RecordKey.of(deathRecord))) {
+					newCount++;
+					newChecksum += checksum(deathRecord);
+				}
+			}
+
+			chunk = oldDataStore.selectRecordsAfter(chunk.get(chunk.size() - 1), chunkSize);
 		}
+
+		if (oldCount != newCount || oldChecksum != newChecksum) {
+			plugin.getLogger().warning("Verification of converted records failed: " + oldCount + " records in "
+					+ oldDataStore + " datastore, " + newCount + " matching records in " + newDataStore
+					+ " datastore. The " + oldDataStore + " datastore has not been deleted.");
+			return false;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Hash a death record for an order independent checksum, summed over all records
+	 *
+	 * @param deathRecord the record to hash
+	 * @return the hash of the record key and coordinates
+	 */
+	private static long checksum(final DeathRecord deathRecord) {
+
+		long hash = deathRecord.getPlayerUid().getMostSignificantBits();
+		hash = hash * 31 + deathRecord.getPlayerUid().getLeastSignificantBits();
+		hash = hash * 31 + deathRecord.getWorldUid().getMostSignificantBits();
+		hash = hash * 31 + deathRecord.getWorldUid().getLeastSignificantBits();
+		hash = hash * 31 + Double.doubleToLongBits(deathRecord.getX());
+		hash = hash * 31 + Double.doubleToLongBits(deathRecord.getY());
+		hash = hash * 31 + Double.doubleToLongBits(deathRecord.getZ());
+
+		// mix bits, so that sums of similar records do not cancel
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+
+		return hash;
 	}
 
 
 	/**
-	 * convert all existing data stores to new data store
+	 * Convert an existing datastore of another type to new datastore. The old datastore keeps
+	 * serving lookups while its records are copied in the background, and every change is written
+	 * to both, so a copied record cannot overwrite a death recorded during the copy. Records are
+	 * copied a chunk at a time from the checkpoint of any earlier, unfinished conversion, and the
+	 * old datastore is only deleted once its records are verified in the new datastore. One
+	 * datastore is converted at a time; any other is converted on a later start.
 	 *
-	 * @param newDataStore the datastore to convert all other existing datastore to
+	 * @param newDataStore the initialized datastore to convert existing datastores to
+	 * @return datastore serving reads until conversion is complete, or new datastore if there is nothing to convert
 	 */
-	static void convertAll(final JavaPlugin plugin, final DataStore newDataStore) {
+	static DataStore convertAll(final PluginMain plugin, final DataStore newDataStore) {
 
-		// get array list of all data store types
-		Collection<DataStoreType> dataStoresTypes = new HashSet<>(Arrays.asList(DataStoreType.values()));
+		// if new datastore could not be initialized, there is nothing to convert to
+		if (!newDataStore.isInitialized()) {
+			return newDataStore;
+		}
 
-		// remove newDataStore from list of types to convert
-		dataStoresTypes.remove(newDataStore.getType());
+		for (DataStoreType type : DataStoreType.values()) {
 
-		for (DataStoreType type : dataStoresTypes) {
-			if (type.storageObjectExists(plugin)) {
-				convert(plugin, type.connect(plugin), newDataStore);
+			// if datastores are same type, or old datastore file does not exist, do not convert
+			if (type.equals(newDataStore.getType()) || !type.storageObjectExists(plugin)) {
+				continue;
 			}
+
+			// initialize old datastore; its records are all read by the copy, and the few lookups
+			// it serves until the copy completes load on demand, so its cache is not warmed
+			DataStore oldDataStore = type.connect(plugin);
+			try {
+				oldDataStore.initialize(false);
+			}
+			catch (Exception e) {
+				plugin.getLogger().warning("Could not initialize "
+						+ oldDataStore + " datastore for conversion.");
+				plugin.getLogger().warning(e.getLocalizedMessage());
+				continue;
+			}
+
+			// serve reads from old datastore until its records are copied, off the main thread
+			MigratingDataStore migratingDataStore = new MigratingDataStore(plugin, oldDataStore, newDataStore);
+			migratingDataStore.start();
+			return migratingDataStore;
 		}
+
+		return newDataStore;
 	}
 
 }
@@ -0,0 +1,659 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import org.bukkit.World;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Single writer thread that drains queued death records and deletes and commits them
+ * to the datastore in batches, one transaction per batch.
+ * <p>
+ * Pending changes are held in a write-behind buffer keyed by player and world.
+ * A newer record or delete for the same key replaces the pending one, so only the
+ * latest change for each key is written. Deletes are queued in the same buffer as
+ * records, so a delete is never overtaken by an earlier record for the same key.
+ * <p>
+ * A change is held in the buffer for a configured write-behind delay after it was first
+ * queued, so a player dying several times a minute costs one write. A flush, or shutdown,
+ * writes all pending changes without waiting for the delay.
+ * <p>
+ * Changes of a batch that could not be committed are queued again, unless a newer change
+ * for the same key was queued meanwhile, and are discarded after a fixed number of attempts.
+ */
+final class DataStoreWriter implements Runnable {
+
+	// reference to plugin main class
+	private final JavaPlugin plugin;
+
+	// database connection used for writes
+	private final Connection connection;
+
+	// prepared statements for connection
+	private final StatementCache statementCache;
+
+	// lock shared with datastore for access to connection
+	private final Object connectionLock;
+
+	// datastore metrics, for batch write latency and queue size
+	private final StorageMetrics metrics;
+
+	// write-behind buffer of changes waiting to be written, keyed by player and world, in order first queued
+	private final Map<RecordKey, PendingChange> pending = new LinkedHashMap<>();
+
+	// changes of batch being written, keyed by player and world; guarded by buffer lock
+	private Map<RecordKey, PendingChange> inFlight = Collections.emptyMap();
+
+	// number of threads waiting for a flush, which makes pending changes due at once; guarded by buffer lock
+	private int flushRequests;
+
+	// lock guarding write-behind buffer
+	private final ReentrantLock bufferLock = new ReentrantLock();
+
+	// condition signalled when records are added to buffer
+	private final Condition recordsAvailable = bufferLock.newCondition();
+
+	// signalled when the writer thread has written all pending records
+	private final Condition recordsWritten = bufferLock.newCondition();
+
+	// signalled when a batch has been written
+	private final Condition batchDone = bufferLock.newCondition();
+
+	// true while a batch taken from buffer, or a bulk insert, is being written; guarded by buffer lock
+	private boolean writing;
+
+	// maximum number of records committed in one transaction
+	private final int batchSize;
+
+	// maximum time to wait for a batch to fill, in nanoseconds
+	private final long lingerNanos;
+
+	// number of times a change is written before it is discarded
+	private final static int MAX_WRITE_ATTEMPTS = 3;
+
+	// time a change is held in buffer before it is written, in nanoseconds
+	private final long writeDelayNanos;
+
+	// writer thread
+	private final Thread thread;
+
+	// worlds already written to world table by this writer, guarded by connection lock
+	private final Set<UUID> writtenWorlds = new HashSet<>();
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param plugin         reference to plugin main class
+	 * @param connection     the database connection to write to
+	 * @param statementCache the prepared statement registry for the connection
+	 * @param connectionLock the lock guarding access to the connection
+	 * @param metrics        the datastore metrics
+	 */
+	DataStoreWriter(final JavaPlugin plugin,
+	                final Connection connection,
+	                final StatementCache statementCache,
+	                final Object connectionLock,
+	                final StorageMetrics metrics) {
+
+		this.plugin = Objects.requireNonNull(plugin);
+		this.connection = Objects.requireNonNull(connection);
+		this.statementCache = Objects.requireNonNull(statementCache);
+		this.connectionLock = Objects.requireNonNull(connectionLock);
+		this.metrics = Objects.requireNonNull(metrics);
+		metrics.setWriteQueueSize(this::pendingCount);
+
+		// get batch size and linger time from config, with sane lower bounds
+		this.batchSize = Math.max(1, plugin.getConfig().getInt("storage-write-batch-size", 100));
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(
+				Math.max(0, plugin.getConfig().getLong("storage-write-linger", 20)));
+		this.writeDelayNanos = TimeUnit.SECONDS.toNanos(
+				Math.max(0, plugin.getConfig().getLong("storage-write-delay", 10)));
+
+		this.thread = new Thread(this, plugin.getName() + " datastore writer");
+		this.thread.setDaemon(true);
+	}
+
+
+	/**
+	 * Change waiting in write-behind buffer
+	 */
+	private static final class PendingChange {
+
+		// the record to be written, or empty optional to delete
+		private final Optional<DeathRecord> change;
+
+		// time the first change still pending for the key was queued, from System.nanoTime
+		private final long queuedTime;
+
+		// number of failed attempts to write the change
+		private final int failedAttempts;
+
+		private PendingChange(final Optional<DeathRecord> change, final long queuedTime, final int failedAttempts) {
+			this.change = change;
+			this.queuedTime = queuedTime;
+			this.failedAttempts = failedAttempts;
+		}
+	}
+
+
+	/**
+	 * Start writer thread
+	 */
+	void start() {
+		thread.start();
+	}
+
+
+	/**
+	 * Stop writer thread, waiting for any queued records to be committed
+	 */
+	void shutdown() {
+
+		thread.interrupt();
+
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (thread.isAlive()) {
+			plugin.getLogger().warning("Datastore writer did not finish before timeout. "
+					+ pendingCount() + " queued records may not have been saved.");
+		}
+	}
+
+
+	/**
+	 * Queue a record to be written, replacing any pending record with the same key
+	 *
+	 * @param deathRecord the record to be written
+	 */
+	void enqueue(final DeathRecord deathRecord) {
+		enqueue(RecordKey.of(deathRecord), Optional.of(deathRecord));
+	}
+
+
+	/**
+	 * Queue a delete, replacing any pending record with the same key. The delete is written
+	 * after any batch already being written, so an earlier record cannot be written after it.
+	 *
+	 * @param recordKey the key of the record to delete
+	 */
+	void enqueueDelete(final RecordKey recordKey) {
+		enqueue(recordKey, Optional.empty());
+	}
+
+
+	/**
+	 * Queue a change, replacing any pending change with the same key
+	 *
+	 * @param recordKey the key of the change
+	 * @param change    the record to be written, or empty optional to delete
+	 */
+	private void enqueue(final RecordKey recordKey, final Optional<DeathRecord> change) {
+		bufferLock.lock();
+		try {
+			// a replaced change keeps its queued time, so a key changing often is still written after the delay
+			final PendingChange previous = pending.get(recordKey);
+			final long queuedTime = previous == null ? System.nanoTime() : previous.queuedTime;
+			pending.put(recordKey, new PendingChange(change, queuedTime, 0));
+			recordsAvailable.signal();
+		}
+		finally {
+			bufferLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Wait for the writer thread to commit all records queued before this call
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit    the unit of the timeout
+	 * @return true if all records were written, false if timeout elapsed first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	boolean flush(final long timeout, final TimeUnit unit) throws InterruptedException {
+		bufferLock.lock();
+		try {
+			// make pending changes due without waiting for write-behind delay
+			flushRequests++;
+			recordsAvailable.signal();
+			try {
+				long remaining = unit.toNanos(timeout);
+				while ((!pending.isEmpty() || writing) && remaining > 0) {
+					remaining = recordsWritten.awaitNanos(remaining);
+				}
+				return pending.isEmpty() && !writing;
+			}
+			finally {
+				flushRequests--;
+			}
+		}
+		finally {
+			bufferLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Get changes of players not yet committed, from the batch being written and the
+	 * write-behind buffer. A change committed after this call is visible to a query
+	 * started after it, so a query result with these changes applied is current.
+	 *
+	 * @param playerUids the player uuids
+	 * @return the latest uncommitted change of each key of the players, empty if deleted
+	 */
+	Map<RecordKey, Optional<DeathRecord>> getPending(final Collection<UUID> playerUids) {
+
+		final Map<RecordKey, Optional<DeathRecord>> changes = new HashMap<>();
+
+		bufferLock.lock();
+		try {
+			for (Map.Entry<RecordKey, PendingChange> entry : inFlight.entrySet()) {
+				if (playerUids.contains(entry.getKey().getPlayerUid())) {
+					changes.put(entry.getKey(), entry.getValue().change);
+				}
+			}
+			for (Map.Entry<RecordKey, PendingChange> entry : pending.entrySet()) {
+				if (playerUids.contains(entry.getKey().getPlayerUid())) {
+					changes.put(entry.getKey(), entry.getValue().change);
+				}
+			}
+		}
+		finally {
+			bufferLock.unlock();
+		}
+
+		return changes;
+	}
+
+
+	/**
+	 * Get number of records waiting to be written
+	 *
+	 * @return the number of pending records
+	 */
+	int pendingCount() {
+		bufferLock.lock();
+		try {
+			return pending.size();
+		}
+		finally {
+			bufferLock.unlock();
+		}
+	}
+
+
+	@Override
+	public void run() {
+
+		final Map<RecordKey, PendingChange> batch = new LinkedHashMap<>();
+		boolean interrupted = false;
+
+		while (!interrupted) {
+			try {
+				awaitBatch();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+
+			takeBatch(batch, interrupted);
+			batchWritten(writeChanges(batch) < 0 ? batch : Collections.emptyMap());
+			batch.clear();
+		}
+
+		// drain any records still pending at shutdown, without waiting for write-behind delay;
+		// failed changes are retried until they reach the maximum number of attempts
+		while (takeBatch(batch, true) > 0) {
+			batchWritten(writeChanges(batch) < 0 ? batch : Collections.emptyMap());
+			batch.clear();
+		}
+	}
+
+
+	/**
+	 * Wait for the oldest pending change to reach the write-behind delay, or for a flush,
+	 * then keep waiting until batch is full or linger time has elapsed. Changes for the
+	 * same key arriving while a change is held are coalesced into one write.
+	 *
+	 * @throws InterruptedException if writer thread is interrupted while waiting
+	 */
+	private void awaitBatch() throws InterruptedException {
+		bufferLock.lockInterruptibly();
+		try {
+			while (true) {
+				if (pending.isEmpty()) {
+					recordsAvailable.await();
+					continue;
+				}
+				if (flushRequests > 0) {
+					return;
+				}
+				final long wait = oldestQueuedTime() + writeDelayNanos - System.nanoTime();
+				if (wait <= 0) {
+					break;
+				}
+				recordsAvailable.awaitNanos(wait);
+			}
+
+			long remaining = lingerNanos;
+			while (pending.size() < batchSize && remaining > 0 && flushRequests == 0) {
+				remaining = recordsAvailable.awaitNanos(remaining);
+			}
+		}
+		finally {
+			bufferLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Get queued time of oldest pending change. Caller must hold buffer lock, and buffer must not be empty.
+	 *
+	 * @return the queued time, from System.nanoTime
+	 */
+	private long oldestQueuedTime() {
+		return pending.values().iterator().next().queuedTime;
+	}
+
+
+	/**
+	 * Move up to one batch of due changes from write-behind buffer to batch map, after
+	 * waiting for any bulk insert being written
+	 *
+	 * @param batch the map to receive changes
+	 * @param all   true to take changes that have not reached the write-behind delay
+	 * @return the number of changes moved
+	 */
+	private int takeBatch(final Map<RecordKey, PendingChange> batch, final boolean all) {
+		bufferLock.lock();
+		try {
+			while (writing) {
+				batchDone.awaitUninterruptibly();
+			}
+			final boolean takeAll = all || flushRequests > 0;
+			final long now = System.nanoTime();
+
+			// buffer is in order first queued, so no change after the first one not due is due
+			Iterator<Map.Entry<RecordKey, PendingChange>> iterator = pending.entrySet().iterator();
+			while (iterator.hasNext() && batch.size() < batchSize) {
+				Map.Entry<RecordKey, PendingChange> entry = iterator.next();
+				if (!takeAll && now - entry.getValue().queuedTime < writeDelayNanos) {
+					break;
+				}
+				batch.put(entry.getKey(), entry.getValue());
+				iterator.remove();
+			}
+			writing = !batch.isEmpty();
+			inFlight = batch;
+			return batch.size();
+		}
+		finally {
+			bufferLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Mark batch as written, waking threads waiting to write or flush. Changes of a batch
+	 * that was rolled back are queued again before waiting threads are woken, so a flush
+	 * does not return before they are retried.
+	 *
+	 * @param failed the changes of the batch if it was rolled back, otherwise an empty map
+	 */
+	private void batchWritten(final Map<RecordKey, PendingChange> failed) {
+		bufferLock.lock();
+		try {
+			requeue(failed);
+			writing = false;
+			inFlight = Collections.emptyMap();
+			batchDone.signalAll();
+			if (pending.isEmpty()) {
+				recordsWritten.signalAll();
+			}
+		}
+		finally {
+			bufferLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Queue changes of a batch that was rolled back again, with a new queued time so they are
+	 * retried after the write-behind delay. A change replaced by a newer change queued while
+	 * the batch was written is dropped, as is a change that has reached the maximum number of
+	 * attempts. Caller must hold buffer lock.
+	 *
+	 * @param failed the changes of the batch that was rolled back
+	 */
+	private void requeue(final Map<RecordKey, PendingChange> failed) {
+
+		if (failed.isEmpty()) {
+			return;
+		}
+
+		final long now = System.nanoTime();
+		int requeued = 0;
+		int discarded = 0;
+
+		for (Map.Entry<RecordKey, PendingChange> entry : failed.entrySet()) {
+
+			// a newer change for the key replaces the failed change
+			if (pending.containsKey(entry.getKey())) {
+				continue;
+			}
+
+			final int failedAttempts = entry.getValue().failedAttempts + 1;
+			if (failedAttempts >= MAX_WRITE_ATTEMPTS) {
+				discarded++;
+				continue;
+			}
+
+			pending.put(entry.getKey(), new PendingChange(entry.getValue().change, now, failedAttempts));
+			requeued++;
+		}
+
+		if (requeued > 0) {
+			plugin.getLogger().warning(requeued + " changes could not be written and will be retried.");
+		}
+		if (discarded > 0) {
+			plugin.getLogger().warning(discarded + " changes could not be written after "
+					+ MAX_WRITE_ATTEMPTS + " attempts and were discarded.");
+		}
+	}
+
+
+	/**
+	 * Write records in a single transaction, in order with queued changes. Pending changes
+	 * for the same keys were queued before this call, so they are discarded, and the
+	 * records are written after any batch the writer thread is writing.
+	 *
+	 * @param records the records to be written
+	 * @return the number of records written, or zero if the transaction was rolled back
+	 */
+	int writeRecords(final Collection<DeathRecord> records) {
+
+		if (records.isEmpty()) {
+			return 0;
+		}
+
+		final long now = System.nanoTime();
+		final Map<RecordKey, PendingChange> batch = new LinkedHashMap<>();
+		for (DeathRecord deathRecord : records) {
+			batch.put(RecordKey.of(deathRecord), new PendingChange(Optional.of(deathRecord), now, 0));
+		}
+
+		bufferLock.lock();
+		try {
+			while (writing) {
+				batchDone.awaitUninterruptibly();
+			}
+			writing = true;
+			inFlight = batch;
+			pending.keySet().removeAll(batch.keySet());
+		}
+		finally {
+			bufferLock.unlock();
+		}
+
+		// a bulk write that was rolled back is reported to the caller, not retried
+		try {
+			return Math.max(0, writeChanges(batch));
+		}
+		finally {
+			batchWritten(Collections.emptyMap());
+		}
+	}
+
+
+	/**
+	 * Write records and deletes in a single transaction, using JDBC batches
+	 *
+	 * @param batch the changes to be written, keyed by record key
+	 * @return the number of changes written, or -1 if the transaction was rolled back
+	 */
+	private int writeChanges(final Map<RecordKey, PendingChange> batch) {
+
+		if (batch.isEmpty()) {
+			return 0;
+		}
+
+		final long startTime = System.nanoTime();
+		int count = 0;
+
+		// worlds added to world table in this transaction
+		final Set<UUID> newWorlds = new HashSet<>();
+
+		synchronized (connectionLock) {
+			try {
+				connection.setAutoCommit(false);
+
+				PreparedStatement insertWorld = statementCache.get("InsertWorld");
+				PreparedStatement insertRecord = statementCache.get("InsertRecord");
+				PreparedStatement deleteRecord = statementCache.get("DeleteRecord");
+
+				// keys in batch are unique, so deletes and inserts can be executed in separate batches
+				boolean hasDeletes = false;
+				boolean hasInserts = false;
+
+				for (Map.Entry<RecordKey, PendingChange> change : batch.entrySet()) {
+
+					if (change.getValue().change.isEmpty()) {
+						deleteRecord.setBytes(1, change.getKey().toBytes());
+						deleteRecord.addBatch();
+						hasDeletes = true;
+						continue;
+					}
+
+					final DeathRecord deathRecord = change.getValue().change.get();
+
+					// get world
+					final World world = plugin.getServer().getWorld(deathRecord.getWorldUid());
+
+					// add world to world table the first time it is written by this writer;
+					// the name of a world that is not loaded is not known, so it is added
+					// when a record is next written while the world is loaded
+					if (world != null && !writtenWorlds.contains(world.getUID()) && newWorlds.add(world.getUID())) {
+						insertWorld.setBytes(1, RecordKey.uidBytes(world.getUID()));
+						insertWorld.setString(2, world.getName());
+						insertWorld.executeUpdate();
+					}
+
+					insertRecord.setBytes(1, change.getKey().toBytes());
+					insertRecord.setDouble(2, deathRecord.getX());
+					insertRecord.setDouble(3, deathRecord.getY());
+					insertRecord.setDouble(4, deathRecord.getZ());
+					insertRecord.addBatch();
+					hasInserts = true;
+				}
+
+				// execute batches and commit transaction; a delete of a missing record is still written
+				if (hasDeletes) {
+					for (int result : deleteRecord.executeBatch()) {
+						if (result >= 0 || result == Statement.SUCCESS_NO_INFO) {
+							count++;
+						}
+					}
+				}
+				if (hasInserts) {
+					for (int result : insertRecord.executeBatch()) {
+						if (result > 0 || result == Statement.SUCCESS_NO_INFO) {
+							count++;
+						}
+					}
+				}
+				connection.commit();
+
+				// worlds are only known to be written once transaction commits
+				writtenWorlds.addAll(newWorlds);
+
+				// output debugging information
+				if (plugin.getConfig().getBoolean("debug")) {
+					plugin.getLogger().info(count + " changes committed in one transaction.");
+				}
+			}
+			catch (Exception e) {
+
+				// output simple error message
+				plugin.getLogger().warning("An error occurred while writing records to the SQLite database.");
+				plugin.getLogger().warning(e.getLocalizedMessage());
+
+				// if debugging is enabled, output stack trace
+				if (plugin.getConfig().getBoolean("debug")) {
+					e.printStackTrace();
+				}
+
+				count = -1;
+
+				try {
+					connection.rollback();
+				}
+				catch (SQLException rollbackException) {
+					plugin.getLogger().warning(rollbackException.getLocalizedMessage());
+				}
+			}
+			finally {
+				try {
+					connection.setAutoCommit(true);
+				}
+				catch (SQLException e) {
+					plugin.getLogger().warning(e.getLocalizedMessage());
+				}
+			}
+		}
+
+		metrics.recordLatency(StorageMetrics.Operation.WRITE_BATCH, startTime);
+		return count;
+	}
+
+}
@@ -18,34 +18,180 @@
 package com.winterhavenmc.deathcompass.storage;
 
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
 
 
 /**
- * Implements in memory cache for datastore objects
+ * Implements in memory cache for datastore objects. Entries are partitioned by world uid,
+ * and each partition is an open addressed hash table of parallel primitive arrays keyed by
+ * player uuid bits, so an entry costs about 56 bytes and no objects. Death records are
+ * created only when returned. The partition of a world is dropped when the world is unloaded.
+ * <p>
+ * The cache is safe to use from any thread. Reads are optimistic and take no lock unless
+ * they overlap a write; writes are serialized by a stamped lock and are short.
+ * <p>
+ * The cache holds at most a configured number of entries. When it grows past that
+ * number, the least recently accessed tenth of the entries is evicted. Entries not
+ * accessed for a configured time are treated as missing, and removed during eviction.
+ * <p>
+ * A key may also be cached as absent, recording that the datastore has no record for it,
+ * so repeated lookups of players who never died in a world do not query storage. Absent
+ * entries are replaced when a record is put, and count toward the same entry limit.
+ * <p>
+ * A player whose records for all worlds were loaded in one query is marked as loaded. For
+ * a loaded player, a world with no cached entry has no stored record. The mark is removed
+ * when any entry of the player is evicted or expires, and from all players when a world
+ * is loaded, since records of worlds that are not loaded are not cached. A player load that
+ * overlaps a world load does not set the mark.
  */
 final class DeathRecordCache implements Listener {
 
+	// slot states
+	private final static byte EMPTY = 0;
+	private final static byte RECORD = 1;
+	private final static byte ABSENT = 2;
+	private final static byte REMOVED = 3;
+
+	// smallest partition capacity; capacities are powers of two
+	private final static int MIN_CAPACITY = 16;
+
 	// static reference to plugin main class
 	private final JavaPlugin plugin;
 
-	// death location map by player uuid, world uid -> death record
-	private final Map<UUID, Map<UUID, DeathRecord>> deathRecordMap;
+	// lock serializing writes and validating optimistic reads
+	private final StampedLock lock = new StampedLock();
+
+	// partition of each world with cached entries; modified only under write lock
+	private final ConcurrentMap<UUID, Partition> partitions = new ConcurrentHashMap<>();
+
+	// number of slots holding a record or absent entry in all partitions; written under write lock
+	private volatile int size;
+
+	// maximum number of cached entries
+	private final int maxEntries;
+
+	// time after last access at which an entry expires, in nanoseconds; zero if entries do not expire
+	private final long expireNanos;
+
+	// players with records for all loaded worlds cached
+	private final Set<UUID> loadedPlayers = ConcurrentHashMap.newKeySet();
+
+	// number of world load events; written only on main thread
+	private volatile int worldLoads;
+
+	// datastore metrics, for eviction count and cache size
+	private final StorageMetrics metrics;
+
+
+	/**
+	 * Cached entries of one world, in a hash table replaced when it is resized
+	 */
+	private static final class Partition {
+
+		// hash table arrays; replaced under write lock
+		private volatile Table table = new Table(MIN_CAPACITY);
+
+		// number of slots holding a record or absent entry; guarded by write lock
+		private int size;
+
+		// number of removed slots, which still lengthen probes until table is rebuilt; guarded by write lock
+		private int removedCount;
+	}
+
+
+	/**
+	 * Parallel arrays of hash table slots
+	 */
+	private static final class Table {
+
+		private final byte[] states;
+		private final long[] playerMsb;
+		private final long[] playerLsb;
+		private final double[] x;
+		private final double[] y;
+		private final double[] z;
+
+		// time of last access, from System.nanoTime; written by readers without lock
+		private final long[] accessTime;
+
+		private Table(final int capacity) {
+			states = new byte[capacity];
+			playerMsb = new long[capacity];
+			playerLsb = new long[capacity];
+			x = new double[capacity];
+			y = new double[capacity];
+			z = new double[capacity];
+			accessTime = new long[capacity];
+		}
+
+		private int capacity() {
+			return states.length;
+		}
+
+		private boolean isLive(final int slot) {
+			return states[slot] == RECORD || states[slot] == ABSENT;
+		}
+
+		/**
+		 * Find slot of key
+		 *
+		 * @return the slot index, or -1 if key is not in table
+		 */
+		private int find(final long msb, final long lsb) {
+			final int mask = states.length - 1;
+			int slot = hash(msb, lsb) & mask;
+			for (int probes = 0; probes < states.length; probes++) {
+				final byte state = states[slot];
+				if (state == EMPTY) {
+					return -1;
+				}
+				if (state != REMOVED && playerMsb[slot] == msb && playerLsb[slot] == lsb) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Find first empty or removed slot for a key known not to be in table
+		 */
+		private int findFree(final long msb, final long lsb) {
+			final int mask = states.length - 1;
+			int slot = hash(msb, lsb) & mask;
+			while (isLive(slot)) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+	}
 
 
 	/**
 	 * Constructor
 	 */
-	DeathRecordCache(final JavaPlugin plugin) {
+	DeathRecordCache(final JavaPlugin plugin, final StorageMetrics metrics) {
 
 		this.plugin = plugin;
+		this.metrics = metrics;
+
+		// get cache limits from config
+		this.maxEntries = Math.max(1, plugin.getConfig().getInt("cache-max-entries", 10000));
+		this.expireNanos = TimeUnit.SECONDS.toNanos(Math.max(0, plugin.getConfig().getLong("cache-expire-after-access", 1800)));
 
-		// initialize location map
-		deathRecordMap = new HashMap<>();
+		metrics.setCacheSize(() -> size);
 
 		// register events in this class
 		plugin.getServer().getPluginManager().registerEvents(this, plugin);
@@ -53,7 +199,19 @@ final class DeathRecordCache implements Listener {
 
 
 	/**
-	 * Insert death location into cache keyed by player UUID and world UID
+	 * Spread bits of player uuid over table index
+	 */
+	private static int hash(final long msb, final long lsb) {
+		long h = msb * 0x9E3779B97F4A7C15L + lsb;
+		h ^= h >>> 32;
+		h ^= h >>> 16;
+		return (int) h;
+	}
+
+
+	/**
+	 * Insert death record into cache keyed by player UUID and world UID, replacing any
+	 * cached record. Used for records written to the datastore.
 	 *
 	 * @param deathRecord object containing player UUID and death location to cache
 	 */
@@ -62,27 +220,116 @@ final class DeathRecordCache implements Listener {
 		// check for null parameter
 		Objects.requireNonNull(deathRecord);
 
-		// get player UUID from death record
-		final UUID playerUid = deathRecord.getPlayerUid();
+		store(deathRecord.getPlayerUid(), deathRecord.getWorldUid(), RECORD,
+				deathRecord.getX(), deathRecord.getY(), deathRecord.getZ(), true, false);
+	}
+
+
+	/**
+	 * Insert death record read from the datastore into cache, unless a record for the same
+	 * key is already cached. A cached record is never older than a stored record, so a
+	 * read that finishes after a concurrent insert does not replace the newer record.
+	 *
+	 * @param deathRecord object containing player UUID and death location to cache
+	 */
+	void putIfAbsent(final DeathRecord deathRecord) {
+
+		// check for null parameter
+		Objects.requireNonNull(deathRecord);
+
+		store(deathRecord.getPlayerUid(), deathRecord.getWorldUid(), RECORD,
+				deathRecord.getX(), deathRecord.getY(), deathRecord.getZ(), false, false);
+	}
+
+
+	/**
+	 * Get number of world loads so far. Read before a query whose records are passed to
+	 * {@link #putPlayer}, since records of a world loaded during the query were skipped.
+	 *
+	 * @return the number of world load events handled by this cache
+	 */
+	int getWorldLoads() {
+		return worldLoads;
+	}
+
+
+	/**
+	 * Cache all records of a player read from the datastore, and mark player as loaded
+	 * unless a world was loaded after the query started
+	 *
+	 * @param playerUid    the player uuid
+	 * @param deathRecords the player's stored records for all loaded worlds
+	 * @param worldLoads   the number of world loads read before the query
+	 */
+	void putPlayer(final UUID playerUid, final Collection<DeathRecord> deathRecords, final int worldLoads) {
+
+		for (DeathRecord deathRecord : deathRecords) {
+			putIfAbsent(deathRecord);
+		}
 
-		// get world UUID from death record location
-		final UUID worldUid = deathRecord.getWorldUid();
+		// if a world was loaded during the query, its records were skipped, so player is not fully cached
+		if (this.worldLoads != worldLoads) {
+			return;
+		}
 
-		// get map for player
-		Map<UUID, DeathRecord> playerMap = deathRecordMap.get(playerUid);
+		loadedPlayers.add(playerUid);
 
-		// if no cached entry exists for player, create new map
-		if (playerMap == null) {
+		// if a world was loaded before the mark was set, the world load did not clear it
+		if (this.worldLoads != worldLoads) {
+			loadedPlayers.remove(playerUid);
+			return;
+		}
 
-			// create empty map
-			playerMap = new HashMap<>();
+		// if an entry was evicted before the mark was set, the player is not fully cached
+		for (DeathRecord deathRecord : deathRecords) {
+			if (findState(deathRecord.getPlayerUid(), deathRecord.getWorldUid()) == EMPTY) {
+				loadedPlayers.remove(playerUid);
+				return;
+			}
 		}
+	}
+
+
+	/**
+	 * Check if all records of a player are cached
+	 *
+	 * @param playerUid the player uuid
+	 * @return true if player is marked as loaded, false if not
+	 */
+	boolean isPlayerLoaded(final UUID playerUid) {
+		return loadedPlayers.contains(playerUid);
+	}
+
+
+	/**
+	 * Cache key as having no record in the datastore, unless an entry for the key is
+	 * already cached. Used when a datastore lookup finds no record.
+	 *
+	 * @param playerUid player UUID of the key
+	 * @param worldUid  world UID of the key
+	 */
+	void putAbsentIfAbsent(final UUID playerUid, final UUID worldUid) {
+		store(playerUid, worldUid, ABSENT, 0, 0, 0, false, false);
+	}
+
 
-		// put this deathRecord into world map
-		playerMap.put(worldUid, deathRecord);
+	/**
+	 * Replace death record in cache only if a record or absent entry for the same key is cached,
+	 * or if all records of the player are cached. Used for bulk inserts, so records of players who
+	 * are not playing are not brought into memory.
+	 *
+	 * @param deathRecord the record written to the datastore
+	 */
+	void update(final DeathRecord deathRecord) {
+
+		// check for null parameter
+		Objects.requireNonNull(deathRecord);
+
+		// a loaded player with no entry for the world would otherwise still be reported absent
+		final boolean onlyIfFound = !loadedPlayers.contains(deathRecord.getPlayerUid());
 
-		// put world map into player map
-		deathRecordMap.put(playerUid, playerMap);
+		store(deathRecord.getPlayerUid(), deathRecord.getWorldUid(), RECORD,
+				deathRecord.getX(), deathRecord.getY(), deathRecord.getZ(), true, onlyIfFound);
 	}
 
 
@@ -91,7 +338,8 @@ final class DeathRecordCache implements Listener {
 	 *
 	 * @param playerUid player UUID to use as key
 	 * @param worldUid  world UID to use as key
-	 * @return deathRecord containing playerUid and death location for world, or null if no record exists
+	 * @return deathRecord containing playerUid and death location for world, or empty optional
+	 * if no record is cached or key is cached as absent
 	 */
 	Optional<DeathRecord> get(final UUID playerUid, final UUID worldUid) {
 
@@ -111,18 +359,368 @@ final class DeathRecordCache implements Listener {
 			return Optional.empty();
 		}
 
-		// if map for player does not exist, return null record
-		if (deathRecordMap.get(playerUid) == null) {
-			return Optional.empty();
+		final long msb = playerUid.getMostSignificantBits();
+		final long lsb = playerUid.getLeastSignificantBits();
+
+		Table t;
+		int slot;
+		double x = 0;
+		double y = 0;
+		double z = 0;
+		long accessTime = 0;
+
+		// read slot without lock, then read again with read lock if a write overlapped the read;
+		// the partition is looked up after the stamp is taken, so dropping it fails validation
+		long stamp = lock.tryOptimisticRead();
+		boolean readLocked = false;
+		try {
+			while (true) {
+				t = tableOf(worldUid);
+				slot = t == null ? -1 : t.find(msb, lsb);
+				if (slot >= 0 && t.states[slot] == RECORD) {
+					x = t.x[slot];
+					y = t.y[slot];
+					z = t.z[slot];
+					accessTime = t.accessTime[slot];
+				}
+				else {
+					slot = -1;
+				}
+				if (readLocked || lock.validate(stamp)) {
+					break;
+				}
+				stamp = lock.readLock();
+				readLocked = true;
+			}
+		}
+		finally {
+			if (readLocked) {
+				lock.unlockRead(stamp);
+			}
 		}
 
-		// if location in map is null, return null record
-		if (deathRecordMap.get(playerUid).get(worldUid) == null) {
+		// if key is not cached, is cached as absent, or has expired, return empty optional
+		if (slot < 0 || !touch(t, slot, accessTime, playerUid)) {
 			return Optional.empty();
 		}
 
 		// return record fetched from cache
-		return Optional.of(deathRecordMap.get(playerUid).get(worldUid));
+		return Optional.of(new DeathRecord(playerUid, worldUid, x, y, z));
+	}
+
+
+	/**
+	 * Get hash table of a world's partition
+	 *
+	 * @return the table, or null if world has no cached entries
+	 */
+	private Table tableOf(final UUID worldUid) {
+		final Partition partition = partitions.get(worldUid);
+		return partition == null ? null : partition.table;
+	}
+
+
+	/**
+	 * Check if key is cached as having no record in the datastore, or has no entry for a loaded player
+	 *
+	 * @param playerUid player UUID of the key
+	 * @param worldUid  world UID of the key
+	 * @return true if datastore is known to have no record for key, false if not known
+	 */
+	boolean isAbsent(final UUID playerUid, final UUID worldUid) {
+
+		if (playerUid == null || worldUid == null) {
+			return false;
+		}
+
+		final byte state = findState(playerUid, worldUid);
+
+		if (state == EMPTY) {
+			return loadedPlayers.contains(playerUid);
+		}
+
+		return state == ABSENT;
+	}
+
+
+	/**
+	 * Get state of unexpired entry for key, updating its access time
+	 *
+	 * @return RECORD or ABSENT if an unexpired entry is cached, otherwise EMPTY
+	 */
+	private byte findState(final UUID playerUid, final UUID worldUid) {
+
+		final long msb = playerUid.getMostSignificantBits();
+		final long lsb = playerUid.getLeastSignificantBits();
+
+		Table t;
+		int slot;
+		byte state = EMPTY;
+		long accessTime = 0;
+
+		// read slot as in get, taking the stamp before the partition is looked up
+		long stamp = lock.tryOptimisticRead();
+		boolean readLocked = false;
+		try {
+			while (true) {
+				t = tableOf(worldUid);
+				slot = t == null ? -1 : t.find(msb, lsb);
+				if (slot >= 0) {
+					state = t.states[slot];
+					accessTime = t.accessTime[slot];
+				}
+				if (readLocked || lock.validate(stamp)) {
+					break;
+				}
+				stamp = lock.readLock();
+				readLocked = true;
+			}
+		}
+		finally {
+			if (readLocked) {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		if (slot < 0 || !touch(t, slot, accessTime, playerUid)) {
+			return EMPTY;
+		}
+		return state;
+	}
+
+
+	/**
+	 * Update access time of a slot read by a validated read, unless its entry has expired. An
+	 * expired entry removes the loaded mark of its player, since a loaded player with no entry
+	 * for a world has no record. If the slot was reused by a write since the read, only the
+	 * access time of the other entry is affected.
+	 *
+	 * @param t          the table read
+	 * @param slot       the slot of the entry
+	 * @param accessTime the access time of the entry, as read
+	 * @param playerUid  the player of the entry
+	 * @return true if entry is live, false if it has expired
+	 */
+	private boolean touch(final Table t, final int slot, final long accessTime, final UUID playerUid) {
+		final long now = System.nanoTime();
+		if (expireNanos > 0 && now - accessTime > expireNanos) {
+			loadedPlayers.remove(playerUid);
+			return false;
+		}
+		t.accessTime[slot] = now;
+		return true;
+	}
+
+
+	/**
+	 * Cache key as having no record, replacing any cached record. Used when a record is deleted,
+	 * so a lookup that read the record before the delete cannot put it back in the cache.
+	 *
+	 * @param playerUid player UUID of record to remove
+	 * @param worldUid  world UID of record to remove
+	 */
+	void remove(final UUID playerUid, final UUID worldUid) {
+		store(playerUid, worldUid, ABSENT, 0, 0, 0, true, false);
+	}
+
+
+	/**
+	 * Write entry for key
+	 *
+	 * @param playerUid   player UUID of the key
+	 * @param worldUid    world UID of the key
+	 * @param state       RECORD or ABSENT
+	 * @param replace     true to replace an existing entry, false to keep it
+	 * @param onlyIfFound true to write only if an entry for the key exists
+	 */
+	private void store(final UUID playerUid, final UUID worldUid, final byte state,
+	                   final double x, final double y, final double z,
+	                   final boolean replace, final boolean onlyIfFound) {
+
+		final long msb = playerUid.getMostSignificantBits();
+		final long lsb = playerUid.getLeastSignificantBits();
+		final long now = System.nanoTime();
+
+		final long stamp = lock.writeLock();
+		try {
+			Partition partition = partitions.get(worldUid);
+			if (partition == null) {
+				if (onlyIfFound) {
+					return;
+				}
+				partition = new Partition();
+				partitions.put(worldUid, partition);
+			}
+
+			Table t = partition.table;
+			int slot = t.find(msb, lsb);
+
+			// an expired entry is treated as missing
+			final boolean found = slot >= 0 && (expireNanos == 0 || now - t.accessTime[slot] <= expireNanos);
+
+			if (found ? !replace : onlyIfFound) {
+				return;
+			}
+
+			if (slot < 0) {
+
+				// grow or rebuild table before it is three quarters full, counting removed slots
+				if ((partition.size + partition.removedCount + 1) * 4L > t.capacity() * 3L) {
+					t = rebuild(partition, partition.size + 1);
+				}
+				slot = t.findFree(msb, lsb);
+				if (t.states[slot] == REMOVED) {
+					partition.removedCount--;
+				}
+				partition.size++;
+				size++;
+				t.playerMsb[slot] = msb;
+				t.playerLsb[slot] = lsb;
+			}
+
+			t.states[slot] = state;
+			t.x[slot] = x;
+			t.y[slot] = y;
+			t.z[slot] = z;
+			t.accessTime[slot] = now;
+
+			if (size > maxEntries) {
+				evict(now);
+			}
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Copy live entries of a partition into a new table with room for a number of entries.
+	 * Caller must hold write lock.
+	 *
+	 * @param partition the partition
+	 * @param entries   the number of entries the new table must hold
+	 * @return the new table
+	 */
+	private Table rebuild(final Partition partition, final int entries) {
+
+		final Table old = partition.table;
+
+		int capacity = MIN_CAPACITY;
+		while (capacity < entries * 2L) {
+			capacity <<= 1;
+		}
+
+		final Table t = new Table(capacity);
+		for (int i = 0; i < old.capacity(); i++) {
+			if (old.isLive(i)) {
+				final int slot = t.findFree(old.playerMsb[i], old.playerLsb[i]);
+				t.states[slot] = old.states[i];
+				t.playerMsb[slot] = old.playerMsb[i];
+				t.playerLsb[slot] = old.playerLsb[i];
+				t.x[slot] = old.x[i];
+				t.y[slot] = old.y[i];
+				t.z[slot] = old.z[i];
+				t.accessTime[slot] = old.accessTime[i];
+			}
+		}
+
+		partition.removedCount = 0;
+		partition.table = t;
+		return t;
+	}
+
+
+	/**
+	 * Remove slot entry. Caller must hold write lock.
+	 *
+	 * @param partition the partition
+	 * @param slot      the slot index
+	 */
+	private void removeSlot(final Partition partition, final int slot) {
+		partition.table.states[slot] = REMOVED;
+		partition.size--;
+		partition.removedCount++;
+		size--;
+	}
+
+
+	/**
+	 * Remove expired entries, then the least recently accessed entries until a tenth of
+	 * the maximum is free. Caller must hold write lock.
+	 *
+	 * @param now the current time, from System.nanoTime
+	 */
+	private void evict(final long now) {
+
+		int evicted = 0;
+
+		// remove expired entries
+		if (expireNanos > 0) {
+			for (Partition partition : partitions.values()) {
+				final Table t = partition.table;
+				for (int i = 0; i < t.capacity(); i++) {
+					if (t.isLive(i) && now - t.accessTime[i] > expireNanos) {
+						loadedPlayers.remove(new UUID(t.playerMsb[i], t.playerLsb[i]));
+						removeSlot(partition, i);
+						evicted++;
+					}
+				}
+			}
+		}
+
+		// remove least recently accessed entries down to low water mark
+		final int target = maxEntries - maxEntries / 10;
+		int excess = size - target;
+		if (excess > 0) {
+
+			// find access time of newest entry to evict
+			final long[] times = new long[size];
+			int n = 0;
+			for (Partition partition : partitions.values()) {
+				final Table t = partition.table;
+				for (int i = 0; i < t.capacity(); i++) {
+					if (t.isLive(i)) {
+						times[n++] = t.accessTime[i] - now;
+					}
+				}
+			}
+			Arrays.sort(times, 0, n);
+			final long cutoff = times[excess - 1];
+
+			for (Partition partition : partitions.values()) {
+				final Table t = partition.table;
+				for (int i = 0; i < t.capacity() && excess > 0; i++) {
+					if (t.isLive(i) && t.accessTime[i] - now <= cutoff) {
+						loadedPlayers.remove(new UUID(t.playerMsb[i], t.playerLsb[i]));
+						removeSlot(partition, i);
+						evicted++;
+						excess--;
+					}
+				}
+			}
+		}
+
+		// players without records are marked loaded without entries, so bound them separately
+		if (loadedPlayers.size() > maxEntries) {
+			loadedPlayers.clear();
+		}
+
+		// rebuild tables to clear removed slots, which lengthen probes, and drop empty partitions
+		partitions.values().removeIf(partition -> partition.size == 0);
+		for (Partition partition : partitions.values()) {
+			rebuild(partition, partition.size);
+		}
+
+		metrics.cacheEvictions(evicted);
+	}
+
+
+	/**
+	 * Unregister event handlers for this cache
+	 */
+	void close() {
+		HandlerList.unregisterAll(this);
 	}
 
 
@@ -133,7 +731,63 @@ final class DeathRecordCache implements Listener {
 	 */
 	@EventHandler
 	void onPlayerQuit(final PlayerQuitEvent event) {
-		deathRecordMap.remove(event.getPlayer().getUniqueId());
+
+		final UUID playerUid = event.getPlayer().getUniqueId();
+		final long msb = playerUid.getMostSignificantBits();
+		final long lsb = playerUid.getLeastSignificantBits();
+
+		final long stamp = lock.writeLock();
+		try {
+			loadedPlayers.remove(playerUid);
+			for (Partition partition : partitions.values()) {
+				final int slot = partition.table.find(msb, lsb);
+				if (slot >= 0) {
+					removeSlot(partition, slot);
+				}
+			}
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Remove loaded mark of all players on world load event, since records of a world
+	 * that was not loaded were not cached. The world load count is incremented first, so
+	 * a player load that read it before this event does not set its mark again afterwards.
+	 *
+	 * @param event the event handled by this listener
+	 */
+	@EventHandler
+	void onWorldLoad(final WorldLoadEvent event) {
+		//noinspection NonAtomicOperationOnVolatileField
+		worldLoads++;
+		loadedPlayers.clear();
+	}
+
+
+	/**
+	 * Drop partition of world on world unload event. Records of a world that is not loaded
+	 * are not cached, so loaded players stay marked as loaded. Handled after other listeners,
+	 * since a loaded player with no entry for a world that stays loaded would seem to have no record.
+	 *
+	 * @param event the event handled by this listener
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	void onWorldUnload(final WorldUnloadEvent event) {
+
+		final long stamp = lock.writeLock();
+		try {
+			final Partition partition = partitions.remove(event.getWorld().getUID());
+			if (partition != null) {
+				size -= partition.size;
+				metrics.cacheEvictions(partition.size);
+			}
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import com.winterhavenmc.deathcompass.PluginMain;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+
+/**
+ * Datastore used while switching storage type, on reload or when a datastore of another type
+ * is found on start. The old datastore keeps serving reads, while inserts and deletes are
+ * written to both datastores. A background task copies existing records to the new datastore;
+ * once the copy has caught up, reads switch to the new datastore in one step, and the old
+ * datastore is closed.
+ * <p>
+ * Records changed while the copy runs are remembered, and written again to the new
+ * datastore after the copy, so a copied record cannot overwrite a newer change.
+ */
+final class MigratingDataStore implements DataStore {
+
+	// reference to plugin main class
+	private final PluginMain plugin;
+
+	// datastore being migrated from
+	private final DataStore oldDataStore;
+
+	// datastore being migrated to
+	private final DataStore newDataStore;
+
+	// datastore serving reads; the old datastore until the switch
+	private volatile DataStore active;
+
+	// latest value of records changed during the copy, empty if deleted; guarded by this
+	private final Map<RecordKey, Optional<DeathRecord>> changes = new HashMap<>();
+
+	// keys of records changed after the switch, which old datastore no longer matches
+	private final Set<RecordKey> changedAfterSwitch = ConcurrentHashMap.newKeySet();
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param plugin       reference to plugin main class
+	 * @param oldDataStore the initialized datastore being migrated from
+	 * @param newDataStore the initialized datastore being migrated to
+	 */
+	MigratingDataStore(final PluginMain plugin, final DataStore oldDataStore, final DataStore newDataStore) {
+		this.plugin = Objects.requireNonNull(plugin);
+		this.oldDataStore = Objects.requireNonNull(oldDataStore);
+		this.newDataStore = Objects.requireNonNull(newDataStore);
+		this.active = oldDataStore;
+	}
+
+
+	/**
+	 * Start background copy of records from old datastore to new datastore
+	 */
+	void start() {
+		new BukkitRunnable() {
+			@Override
+			public void run() {
+				migrate();
+			}
+		}.runTaskAsynchronously(plugin);
+	}
+
+
+	/**
+	 * Check if reads have switched to the new datastore
+	 *
+	 * @return true if migration is complete, false if still copying
+	 */
+	boolean isComplete() {
+		return active == newDataStore;
+	}
+
+
+	/**
+	 * Copy records, apply changes made during the copy, then switch reads to new datastore
+	 */
+	private void migrate() {
+
+		plugin.getLogger().info("Migrating " + oldDataStore + " datastore to " + newDataStore
+				+ " datastore. The " + oldDataStore + " datastore serves lookups until migration is complete.");
+
+		try {
+			// commit queued writes, so the copy reads every record written before it started
+			oldDataStore.sync();
+
+			if (!DataStoreType.copyRecords(plugin, oldDataStore, newDataStore)) {
+				return;
+			}
+
+			synchronized (this) {
+
+				// write records changed during the copy again, replacing any older copied value
+				final Collection<DeathRecord> changed = new ArrayList<>();
+				for (Map.Entry<RecordKey, Optional<DeathRecord>> entry : changes.entrySet()) {
+					if (entry.getValue().isPresent()) {
+						changed.add(entry.getValue().get());
+					}
+					else {
+						newDataStore.deleteRecord(entry.getKey().getPlayerUid(), entry.getKey().getWorldUid());
+					}
+				}
+				newDataStore.insertRecords(changed);
+				changes.clear();
+
+				// switch reads to new datastore; later changes are only written to new datastore
+				active = newDataStore;
+			}
+		}
+		catch (RuntimeException e) {
+			plugin.getLogger().warning("Migration of " + oldDataStore + " datastore failed: " + e.getLocalizedMessage());
+			return;
+		}
+
+		plugin.getLogger().info("Switched to " + newDataStore + " datastore.");
+
+		// no more writes reach old datastore, so it can be compared with new datastore,
+		// except for records changed since the switch
+		oldDataStore.sync();
+		newDataStore.sync();
+		final boolean verified = DataStoreType.verifyRecords(plugin, oldDataStore, newDataStore, changedAfterSwitch);
+		if (verified) {
+			newDataStore.clearConversionCheckpoint(oldDataStore.getType());
+		}
+
+		// if plugin is being disabled, both datastores are closed by close()
+		if (!plugin.isEnabled()) {
+			return;
+		}
+
+		// replace this datastore with new datastore, then close and remove old datastore
+		new BukkitRunnable() {
+			@Override
+			public void run() {
+				if (plugin.dataStore == MigratingDataStore.this) {
+					plugin.dataStore = newDataStore;
+				}
+				oldDataStore.close();
+				if (verified) {
+					oldDataStore.delete();
+				}
+			}
+		}.runTask(plugin);
+	}
+
+
+	/**
+	 * Remember a change, to be written again after the copy or excluded from verification
+	 *
+	 * @param recordKey   the key of the changed record
+	 * @param deathRecord the new value of the record, or empty if deleted
+	 */
+	private void recordChange(final RecordKey recordKey, final Optional<DeathRecord> deathRecord) {
+		if (active == oldDataStore) {
+			changes.put(recordKey, deathRecord);
+		}
+		else {
+			changedAfterSwitch.add(recordKey);
+		}
+	}
+
+
+	@Override
+	public void initialize(final boolean warmCache) {
+		// both datastores are initialized before migration starts
+	}
+
+
+	@Override
+	public boolean isInitialized() {
+		return active.isInitialized();
+	}
+
+
+	@Override
+	public DataStoreType getType() {
+		return newDataStore.getType();
+	}
+
+
+	@Override
+	public Collection<DeathRecord> selectAllRecords() {
+		return active.selectAllRecords();
+	}
+
+
+	@Override
+	public int forEachRecord(final Consumer<DeathRecord> consumer) {
+		return active.forEachRecord(consumer);
+	}
+
+
+	@Override
+	public long countRecords() {
+		return active.countRecords();
+	}
+
+
+	@Override
+	public List<DeathRecord> selectRecordsAfter(final DeathRecord after, final int limit) {
+		return active.selectRecordsAfter(after, limit);
+	}
+
+
+	@Override
+	public Collection<DeathRecord> selectRecordsByKey(final Collection<DeathRecord> deathRecords) {
+		return active.selectRecordsByKey(deathRecords);
+	}
+
+
+	@Override
+	public Optional<DeathRecord> getConversionCheckpoint(final DataStoreType sourceType) {
+		return newDataStore.getConversionCheckpoint(sourceType);
+	}
+
+
+	@Override
+	public void setConversionCheckpoint(final DataStoreType sourceType, final DeathRecord lastRecord) {
+		newDataStore.setConversionCheckpoint(sourceType, lastRecord);
+	}
+
+
+	@Override
+	public void clearConversionCheckpoint(final DataStoreType sourceType) {
+		newDataStore.clearConversionCheckpoint(sourceType);
+	}
+
+
+	@Override
+	public Optional<DeathRecord> selectRecord(final UUID playerUUID, final UUID worldUID) {
+		return active.selectRecord(playerUUID, worldUID);
+	}
+
+
+	@Override
+	public Collection<DeathRecord> selectRecordsForPlayer(final UUID playerUUID) {
+		return active.selectRecordsForPlayer(playerUUID);
+	}
+
+
+	@Override
+	public Collection<DeathRecord> selectRecords(final Collection<UUID> playerUUIDs) {
+		return active.selectRecords(playerUUIDs);
+	}
+
+
+	@Override
+	public synchronized void insertRecord(final DeathRecord deathRecord) {
+
+		// if record is null do nothing and return
+		if (deathRecord == null) {
+			return;
+		}
+
+		if (active == oldDataStore) {
+			oldDataStore.insertRecord(deathRecord);
+		}
+		newDataStore.insertRecord(deathRecord);
+		recordChange(RecordKey.of(deathRecord), Optional.of(deathRecord));
+	}
+
+
+	@Override
+	public synchronized int insertRecords(final Collection<DeathRecord> deathRecords) {
+
+		// if collection is null do nothing and return
+		if (deathRecords == null) {
+			return 0;
+		}
+
+		if (active == oldDataStore) {
+			oldDataStore.insertRecords(deathRecords);
+		}
+		for (DeathRecord deathRecord : deathRecords) {
+			recordChange(RecordKey.of(deathRecord), Optional.of(deathRecord));
+		}
+		return newDataStore.insertRecords(deathRecords);
+	}
+
+
+	@Override
+	public synchronized Optional<DeathRecord> deleteRecord(final UUID playerUUID, final UUID worldUID) {
+
+		// if key is null return empty optional
+		if (playerUUID == null || worldUID == null) {
+			return Optional.empty();
+		}
+
+		recordChange(new RecordKey(playerUUID, worldUID), Optional.empty());
+		Optional<DeathRecord> newResult = newDataStore.deleteRecord(playerUUID, worldUID);
+
+		// return deleted record from the datastore serving reads
+		if (active == oldDataStore) {
+			return oldDataStore.deleteRecord(playerUUID, worldUID);
+		}
+
+		return newResult;
+	}
+
+
+	@Override
+	public Executor getExecutor() {
+		return active.getExecutor();
+	}
+
+
+	@Override
+	public StorageMetrics getMetrics() {
+		return active.getMetrics();
+	}
+
+
+	@Override
+	public void close() {
+
+		// closing new datastore stops the copy; it resumes from its checkpoint on next start
+		newDataStore.close();
+		if (oldDataStore.isInitialized()) {
+			oldDataStore.close();
+		}
+	}
+
+
+	@Override
+	public void sync() {
+		if (active == oldDataStore) {
+			oldDataStore.sync();
+		}
+		newDataStore.sync();
+	}
+
+
+	@Override
+	public boolean delete() {
+		return newDataStore.delete();
+	}
+
+
+	@Override
+	public String toString() {
+		return newDataStore.toString();
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import java.io.*;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Bloom filter of the uuids of players with at least one stored death record. A player the
+ * filter does not contain has no stored record, so lookups for that player need no query.
+ * A player the filter contains probably has a record. Players are added from any thread
+ * without locking; players are never removed, so deleted records only cost false positives.
+ */
+final class PlayerFilter {
+
+	// identifies a persisted filter file, and its format version
+	private final static int FILE_MAGIC = 0x44435046;
+	private final static int FILE_VERSION = 1;
+
+	// target false positive rate at expected number of players
+	private final static double FALSE_POSITIVE_RATE = 0.01;
+
+	// smallest number of players a filter is sized for
+	private final static int MIN_EXPECTED_PLAYERS = 10000;
+
+	// filter bits
+	private final AtomicLongArray bits;
+
+	// number of filter bits
+	private final long bitCount;
+
+	// number of bits set for each player
+	private final int hashCount;
+
+	// number of players filter is sized for
+	private final long capacity;
+
+	// number of players added, counting players whose bits were all set already as not added
+	private final AtomicLong playerCount;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param bits        the filter bits
+	 * @param hashCount   the number of bits set for each player
+	 * @param capacity    the number of players filter is sized for
+	 * @param playerCount the number of players already added
+	 */
+	private PlayerFilter(final AtomicLongArray bits, final int hashCount, final long capacity, final long playerCount) {
+		this.bits = bits;
+		this.bitCount = (long) bits.length() * Long.SIZE;
+		this.hashCount = hashCount;
+		this.capacity = capacity;
+		this.playerCount = new AtomicLong(playerCount);
+	}
+
+
+	/**
+	 * Create empty filter sized for a number of players, with room to grow to twice that number
+	 *
+	 * @param expectedPlayers the number of players expected to be added
+	 * @return the empty filter
+	 */
+	static PlayerFilter create(final long expectedPlayers) {
+
+		final long capacity = Math.max(MIN_EXPECTED_PLAYERS, expectedPlayers * 2);
+
+		// optimal bit count and hash count for capacity and false positive rate
+		final double bitsNeeded = -capacity * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2));
+		final int words = (int) Math.min(Integer.MAX_VALUE - 8, (long) Math.ceil(bitsNeeded / Long.SIZE));
+		final int hashCount = Math.max(1, (int) Math.round((double) words * Long.SIZE / capacity * Math.log(2)));
+
+		return new PlayerFilter(new AtomicLongArray(words), hashCount, capacity, 0);
+	}
+
+
+	/**
+	 * Add player to filter
+	 *
+	 * @param playerUid the player uuid
+	 */
+	void add(final UUID playerUid) {
+
+		final long hash1 = mix(playerUid.getMostSignificantBits() ^ Long.rotateLeft(playerUid.getLeastSignificantBits(), 32));
+		final long hash2 = mix(playerUid.getLeastSignificantBits()) | 1;
+
+		boolean added = false;
+		for (int i = 0; i < hashCount; i++) {
+			final long index = Math.floorMod(hash1 + i * hash2, bitCount);
+			final long mask = 1L << index;
+			final int word = (int) (index >>> 6);
+			if ((bits.get(word) & mask) == 0) {
+				added |= (bits.getAndUpdate(word, value -> value | mask) & mask) == 0;
+			}
+		}
+
+		if (added) {
+			playerCount.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * Check if more players have been added than the filter is sized for, so its false
+	 * positive rate is above target and it should be rebuilt larger
+	 *
+	 * @return true if filter is over capacity, false if not
+	 */
+	boolean isOverCapacity() {
+		return playerCount.get() > capacity;
+	}
+
+
+	/**
+	 * Test if player may have a stored record
+	 *
+	 * @param playerUid the player uuid
+	 * @return false if player has no stored record, true if player probably has a stored record
+	 */
+	boolean mightContain(final UUID playerUid) {
+
+		final long hash1 = mix(playerUid.getMostSignificantBits() ^ Long.rotateLeft(playerUid.getLeastSignificantBits(), 32));
+		final long hash2 = mix(playerUid.getLeastSignificantBits()) | 1;
+
+		for (int i = 0; i < hashCount; i++) {
+			final long index = Math.floorMod(hash1 + i * hash2, bitCount);
+			if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Spread bits of a 64 bit value
+	 *
+	 * @param value the value to mix
+	 * @return the mixed value
+	 */
+	private static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+
+	/**
+	 * Write filter to file
+	 *
+	 * @param file the file to write
+	 * @throws IOException if the file could not be written
+	 */
+	void write(final File file) throws IOException {
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(hashCount);
+			out.writeLong(capacity);
+			out.writeLong(playerCount.get());
+			out.writeInt(bits.length());
+			for (int i = 0; i < bits.length(); i++) {
+				out.writeLong(bits.get(i));
+			}
+		}
+	}
+
+
+	/**
+	 * Read filter from file written by {@link #write}
+	 *
+	 * @param file the file to read
+	 * @return the filter, or empty optional if file does not exist or is not a valid filter file
+	 */
+	static Optional<PlayerFilter> read(final File file) {
+
+		if (!file.isFile()) {
+			return Optional.empty();
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+				return Optional.empty();
+			}
+
+			final int hashCount = in.readInt();
+			final long capacity = in.readLong();
+			final long playerCount = in.readLong();
+			final int words = in.readInt();
+			if (hashCount < 1 || capacity < 1 || words < 1) {
+				return Optional.empty();
+			}
+
+			final AtomicLongArray bits = new AtomicLongArray(words);
+			for (int i = 0; i < words; i++) {
+				bits.set(i, in.readLong());
+			}
+			return Optional.of(new PlayerFilter(bits, hashCount, capacity, playerCount));
+		}
+		catch (IOException e) {
+			return Optional.empty();
+		}
+	}
+
+}
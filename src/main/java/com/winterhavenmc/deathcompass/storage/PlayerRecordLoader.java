@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+
+/**
+ * Coalesces requests to load all records of a player. Requests arriving within one
+ * server tick of each other are served by a single bulk query, and a request for a
+ * player whose load is already queued or in flight shares that load. A group of
+ * players can also be loaded at once, without waiting for more requests.
+ */
+final class PlayerRecordLoader {
+
+	// time to collect requests before running bulk query, one server tick
+	private final static long COALESCE_MILLIS = 50;
+
+	// bulk query of all records for a collection of players
+	private final Function<Collection<UUID>, Collection<DeathRecord>> bulkQuery;
+
+	// executor that runs bulk queries without delay
+	private final Executor executor;
+
+	// executor that runs bulk queries after coalescing delay
+	private final Executor delayedExecutor;
+
+	// loads queued or in flight, keyed by player uuid
+	private final Map<UUID, CompletableFuture<Collection<DeathRecord>>> loads = new HashMap<>();
+
+	// players queued for next bulk query
+	private final Set<UUID> queued = new HashSet<>();
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param bulkQuery the bulk query to run for queued players
+	 * @param executor  the executor to run bulk queries on
+	 */
+	PlayerRecordLoader(final Function<Collection<UUID>, Collection<DeathRecord>> bulkQuery, final Executor executor) {
+		this.bulkQuery = Objects.requireNonNull(bulkQuery);
+		this.executor = Objects.requireNonNull(executor);
+		this.delayedExecutor = CompletableFuture.delayedExecutor(COALESCE_MILLIS, TimeUnit.MILLISECONDS, executor);
+	}
+
+
+	/**
+	 * Load all records of a player
+	 *
+	 * @param playerUid the player uuid
+	 * @return future of the player's records
+	 */
+	synchronized CompletableFuture<Collection<DeathRecord>> load(final UUID playerUid) {
+
+		// if a load for player is queued or in flight, share it
+		CompletableFuture<Collection<DeathRecord>> future = loads.get(playerUid);
+		if (future != null) {
+			return future;
+		}
+
+		future = new CompletableFuture<>();
+		loads.put(playerUid, future);
+		queued.add(playerUid);
+
+		// first request of a batch schedules the bulk query
+		if (queued.size() == 1) {
+			delayedExecutor.execute(this::flush);
+		}
+
+		return future;
+	}
+
+
+	/**
+	 * Load all records of a group of players in one bulk query, started without coalescing
+	 * delay. Players whose load is already queued or in flight share that load.
+	 *
+	 * @param playerUids the player uuids
+	 * @return future completed when records of all players are loaded
+	 */
+	synchronized CompletableFuture<Void> loadAll(final Collection<UUID> playerUids) {
+
+		final Map<UUID, CompletableFuture<Collection<DeathRecord>>> batch = new HashMap<>();
+		final Collection<CompletableFuture<Collection<DeathRecord>>> futures = new ArrayList<>();
+
+		for (UUID playerUid : playerUids) {
+			CompletableFuture<Collection<DeathRecord>> future = loads.get(playerUid);
+			if (future == null) {
+				future = new CompletableFuture<>();
+				loads.put(playerUid, future);
+				batch.put(playerUid, future);
+			}
+			futures.add(future);
+		}
+
+		if (!batch.isEmpty()) {
+			executor.execute(() -> query(batch));
+		}
+
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+	}
+
+
+	/**
+	 * Get load of a player that is queued or in flight
+	 *
+	 * @param playerUid the player uuid
+	 * @return future of the player's records, or empty optional if no load is queued or in flight
+	 */
+	synchronized Optional<CompletableFuture<Collection<DeathRecord>>> getLoad(final UUID playerUid) {
+		return Optional.ofNullable(loads.get(playerUid));
+	}
+
+
+	/**
+	 * Run bulk query for all queued players and complete their futures
+	 */
+	private void flush() {
+
+		final Map<UUID, CompletableFuture<Collection<DeathRecord>>> batch = new HashMap<>();
+
+		synchronized (this) {
+			for (UUID playerUid : queued) {
+				batch.put(playerUid, loads.get(playerUid));
+			}
+			queued.clear();
+		}
+
+		query(batch);
+	}
+
+
+	/**
+	 * Run bulk query for a batch of players and complete their futures
+	 *
+	 * @param batch the futures of the batch, keyed by player uuid
+	 */
+	private void query(final Map<UUID, CompletableFuture<Collection<DeathRecord>>> batch) {
+
+		// group results by player, with an empty collection for players without records
+		final Map<UUID, Collection<DeathRecord>> results = new HashMap<>();
+		for (UUID playerUid : batch.keySet()) {
+			results.put(playerUid, new ArrayList<>());
+		}
+
+		try {
+			for (DeathRecord deathRecord : bulkQuery.apply(batch.keySet())) {
+				Collection<DeathRecord> playerRecords = results.get(deathRecord.getPlayerUid());
+				if (playerRecords != null) {
+					playerRecords.add(deathRecord);
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			complete(batch, null, e);
+			return;
+		}
+
+		complete(batch, results, null);
+	}
+
+
+	/**
+	 * Complete futures of a batch and remove them from in flight loads
+	 *
+	 * @param batch     the futures of the batch, keyed by player uuid
+	 * @param results   the records of each player, or null if query failed
+	 * @param exception the exception thrown by the query, or null if query succeeded
+	 */
+	private void complete(final Map<UUID, CompletableFuture<Collection<DeathRecord>>> batch,
+	                      final Map<UUID, Collection<DeathRecord>> results,
+	                      final RuntimeException exception) {
+
+		synchronized (this) {
+			for (UUID playerUid : batch.keySet()) {
+				loads.remove(playerUid);
+			}
+		}
+
+		for (Map.Entry<UUID, CompletableFuture<Collection<DeathRecord>>> entry : batch.entrySet()) {
+			if (exception != null) {
+				entry.getValue().completeExceptionally(exception);
+			}
+			else {
+				entry.getValue().complete(results.get(entry.getKey()));
+			}
+		}
+	}
+
+}
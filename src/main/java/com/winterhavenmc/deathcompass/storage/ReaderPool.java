@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Small fixed pool of read-only database connections. Each connection owns its own
+ * prepared statement registry, and is used by one thread at a time, so reads never
+ * wait on the lock guarding the writer connection.
+ */
+final class ReaderPool {
+
+	// maximum time to wait for a free reader connection
+	private final static long ACQUIRE_TIMEOUT_SECONDS = 5;
+
+	// all reader connections, for closing
+	private final Collection<Reader> readers = new ArrayList<>();
+
+	// idle reader connections
+	private final BlockingQueue<Reader> idleReaders;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param connections the read-only connections in the pool
+	 */
+	ReaderPool(final Collection<Connection> connections) {
+
+		idleReaders = new ArrayBlockingQueue<>(Math.max(1, connections.size()));
+
+		for (Connection connection : connections) {
+			Reader reader = new Reader(connection);
+			readers.add(reader);
+			idleReaders.add(reader);
+		}
+	}
+
+
+	/**
+	 * Borrow a reader connection from the pool. The reader must be closed
+	 * to return it to the pool, preferably with try-with-resources.
+	 *
+	 * @return a reader connection
+	 * @throws SQLException if no reader became available before timeout
+	 */
+	Reader acquire() throws SQLException {
+
+		final Reader reader;
+
+		try {
+			reader = idleReaders.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a reader connection.");
+		}
+
+		if (reader == null) {
+			throw new SQLException("Timed out waiting for a reader connection.");
+		}
+
+		return reader;
+	}
+
+
+	/**
+	 * Close all connections in pool
+	 */
+	void close() {
+		for (Reader reader : readers) {
+			reader.statementCache.close();
+			try {
+				reader.connection.close();
+			}
+			catch (SQLException e) {
+				// connection is discarded in any case
+			}
+		}
+		readers.clear();
+		idleReaders.clear();
+	}
+
+
+	/**
+	 * A read-only connection borrowed from the pool, with its prepared statement registry
+	 */
+	final class Reader implements AutoCloseable {
+
+		private final Connection connection;
+		private final StatementCache statementCache;
+
+
+		private Reader(final Connection connection) {
+			this.connection = Objects.requireNonNull(connection);
+			this.statementCache = new StatementCache(connection);
+		}
+
+
+		/**
+		 * Get the prepared statement registry of this reader connection
+		 *
+		 * @return the statement registry
+		 */
+		StatementCache statements() {
+			return statementCache;
+		}
+
+
+		/**
+		 * Return this reader to the pool
+		 */
+		@Override
+		public void close() {
+			idleReaders.offer(this);
+		}
+	}
+
+}
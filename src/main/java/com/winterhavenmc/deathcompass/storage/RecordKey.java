@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.UUID;
+
+
+/**
+ * Composite key of player UUID and world UID, matching the unique key of a stored death record.
+ * <p>
+ * In schema v2 the key is stored as a 32 byte blob: player uuid followed by world uid,
+ * each as big-endian most significant and least significant longs. All keys of one
+ * player therefore sort together, between {@link #lowerBound} and {@link #upperBound}.
+ */
+final class RecordKey {
+
+	// length of encoded key in bytes
+	private final static int KEY_LENGTH = 32;
+
+	private final UUID playerUid;
+	private final UUID worldUid;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param playerUid the player UUID component of the key
+	 * @param worldUid  the world UID component of the key
+	 */
+	RecordKey(final UUID playerUid, final UUID worldUid) {
+		this.playerUid = Objects.requireNonNull(playerUid);
+		this.worldUid = Objects.requireNonNull(worldUid);
+	}
+
+
+	/**
+	 * Create key for death record
+	 *
+	 * @param deathRecord the death record
+	 * @return the key of the death record
+	 */
+	static RecordKey of(final DeathRecord deathRecord) {
+		return new RecordKey(deathRecord.getPlayerUid(), deathRecord.getWorldUid());
+	}
+
+
+	/**
+	 * Create key from stored 32 byte blob
+	 *
+	 * @param bytes the stored key
+	 * @return the decoded key
+	 */
+	static RecordKey fromBytes(final byte[] bytes) {
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		final UUID playerUid = new UUID(buffer.getLong(), buffer.getLong());
+		final UUID worldUid = new UUID(buffer.getLong(), buffer.getLong());
+		return new RecordKey(playerUid, worldUid);
+	}
+
+
+	/**
+	 * Encode key as 32 byte blob for storage
+	 *
+	 * @return the encoded key
+	 */
+	byte[] toBytes() {
+		return ByteBuffer.allocate(KEY_LENGTH)
+				.putLong(playerUid.getMostSignificantBits())
+				.putLong(playerUid.getLeastSignificantBits())
+				.putLong(worldUid.getMostSignificantBits())
+				.putLong(worldUid.getLeastSignificantBits())
+				.array();
+	}
+
+
+	/**
+	 * Get smallest stored key of a player
+	 *
+	 * @param playerUid the player uuid
+	 * @return the encoded lower bound of keys for player
+	 */
+	static byte[] lowerBound(final UUID playerUid) {
+		return ByteBuffer.allocate(KEY_LENGTH)
+				.putLong(playerUid.getMostSignificantBits())
+				.putLong(playerUid.getLeastSignificantBits())
+				.array();
+	}
+
+
+	/**
+	 * Get largest stored key of a player
+	 *
+	 * @param playerUid the player uuid
+	 * @return the encoded upper bound of keys for player
+	 */
+	static byte[] upperBound(final UUID playerUid) {
+		return ByteBuffer.allocate(KEY_LENGTH)
+				.putLong(playerUid.getMostSignificantBits())
+				.putLong(playerUid.getLeastSignificantBits())
+				.putLong(-1L)
+				.putLong(-1L)
+				.array();
+	}
+
+
+	/**
+	 * Encode a uid as 16 byte blob for storage
+	 *
+	 * @param uid the uid
+	 * @return the encoded uid
+	 */
+	static byte[] uidBytes(final UUID uid) {
+		return ByteBuffer.allocate(KEY_LENGTH / 2)
+				.putLong(uid.getMostSignificantBits())
+				.putLong(uid.getLeastSignificantBits())
+				.array();
+	}
+
+
+	UUID getPlayerUid() {
+		return playerUid;
+	}
+
+
+	UUID getWorldUid() {
+		return worldUid;
+	}
+
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof RecordKey)) {
+			return false;
+		}
+		RecordKey that = (RecordKey) o;
+		return playerUid.equals(that.playerUid) && worldUid.equals(that.worldUid);
+	}
+
+
+	@Override
+	public int hashCode() {
+		return 31 * playerUid.hashCode() + worldUid.hashCode();
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Registry of prepared statements for a single database connection, keyed by query name
+ * from queries.properties. Statements are prepared on first use and reused until the
+ * registry is closed. The registry is owned by the holder of the connection, and is
+ * not thread safe; callers must hold the same lock that guards the connection.
+ */
+final class StatementCache {
+
+	// the connection statements are prepared on
+	private final Connection connection;
+
+	// prepared statements keyed by query name
+	private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param connection the connection to prepare statements on
+	 */
+	StatementCache(final Connection connection) {
+		this.connection = Objects.requireNonNull(connection);
+	}
+
+
+	/**
+	 * Get prepared statement for query name, preparing it if necessary
+	 *
+	 * @param queryName the properties key of the query
+	 * @return the prepared statement, with parameters cleared
+	 * @throws SQLException if the statement could not be prepared
+	 */
+	PreparedStatement get(final String queryName) throws SQLException {
+
+		PreparedStatement preparedStatement = statements.get(queryName);
+
+		// if no statement cached, or cached statement was closed, prepare new statement
+		if (preparedStatement == null || preparedStatement.isClosed()) {
+			preparedStatement = connection.prepareStatement(Queries.getQuery(queryName));
+			statements.put(queryName, preparedStatement);
+		}
+		else {
+			preparedStatement.clearParameters();
+		}
+
+		return preparedStatement;
+	}
+
+
+	/**
+	 * Get prepared statement for a query with a variable length list, preparing it if necessary.
+	 * The %s in the query string is replaced with the placeholder repeated count times,
+	 * separated by commas. Each list length is registered as a separate statement.
+	 *
+	 * @param queryName   the properties key of the query
+	 * @param placeholder the parameter placeholder for one list element, such as {@code (?,?)}
+	 * @param count       the number of list elements
+	 * @return the prepared statement, with parameters cleared
+	 * @throws SQLException if the statement could not be prepared
+	 */
+	PreparedStatement get(final String queryName, final String placeholder, final int count) throws SQLException {
+
+		final String key = queryName + "#" + count;
+
+		PreparedStatement preparedStatement = statements.get(key);
+
+		// if no statement cached, or cached statement was closed, prepare new statement
+		if (preparedStatement == null || preparedStatement.isClosed()) {
+			final String list = String.join(",", Collections.nCopies(count, placeholder));
+			preparedStatement = connection.prepareStatement(String.format(Queries.getQuery(queryName), list));
+			statements.put(key, preparedStatement);
+		}
+		else {
+			preparedStatement.clearParameters();
+		}
+
+		return preparedStatement;
+	}
+
+
+	/**
+	 * Close all prepared statements in registry
+	 */
+	void close() {
+		for (PreparedStatement preparedStatement : statements.values()) {
+			try {
+				preparedStatement.close();
+			}
+			catch (SQLException e) {
+				// statement is discarded in any case
+			}
+		}
+		statements.clear();
+	}
+
+}
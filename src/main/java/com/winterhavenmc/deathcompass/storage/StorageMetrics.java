@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.storage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+
+/**
+ * Counters and latency histograms for a datastore and its cache, updated from any thread
+ * without locking. Values are read while they are being updated, so a snapshot of several
+ * values is approximate.
+ */
+public final class StorageMetrics {
+
+	/**
+	 * Datastore operations with recorded latency
+	 */
+	public enum Operation {
+		SELECT_RECORD,
+		INSERT_RECORD,
+		DELETE_RECORD,
+		SELECT_ALL_RECORDS,
+		WRITE_BATCH,
+	}
+
+	// cache counters
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private final LongAdder cacheNegativeHits = new LongAdder();
+	private final LongAdder cacheEvictions = new LongAdder();
+
+	// current number of cache entries
+	private volatile IntSupplier cacheSize = () -> 0;
+
+	// current number of records waiting for the writer thread
+	private volatile IntSupplier writeQueueSize = () -> 0;
+
+	// latency histogram for each operation
+	private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+
+	/**
+	 * Class constructor
+	 */
+	StorageMetrics() {
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new LatencyHistogram());
+		}
+	}
+
+
+	void cacheHit() {
+		cacheHits.increment();
+	}
+
+
+	void cacheMiss() {
+		cacheMisses.increment();
+	}
+
+
+	void cacheNegativeHit() {
+		cacheNegativeHits.increment();
+	}
+
+
+	void cacheEvictions(final int count) {
+		cacheEvictions.add(count);
+	}
+
+
+	void setCacheSize(final IntSupplier cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+
+	void setWriteQueueSize(final IntSupplier writeQueueSize) {
+		this.writeQueueSize = writeQueueSize;
+	}
+
+
+	/**
+	 * Record latency of an operation
+	 *
+	 * @param operation the operation
+	 * @param startTime the start time of the operation, from System.nanoTime
+	 */
+	void recordLatency(final Operation operation, final long startTime) {
+		latencies.get(operation).record(System.nanoTime() - startTime);
+	}
+
+
+	/**
+	 * Get number of lookups answered with a cached record
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+
+	/**
+	 * Get number of lookups not answered from cache
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+
+	/**
+	 * Get number of lookups answered from cache as having no record
+	 *
+	 * @return the number of negative cache hits
+	 */
+	public long getCacheNegativeHits() {
+		return cacheNegativeHits.sum();
+	}
+
+
+	/**
+	 * Get number of entries evicted from cache for size or expiry
+	 *
+	 * @return the number of cache evictions
+	 */
+	public long getCacheEvictions() {
+		return cacheEvictions.sum();
+	}
+
+
+	/**
+	 * Get current number of cache entries, including entries for records known to be absent
+	 *
+	 * @return the number of cache entries
+	 */
+	public int getCacheSize() {
+		return cacheSize.getAsInt();
+	}
+
+
+	/**
+	 * Get current number of records queued for writing
+	 *
+	 * @return the number of records waiting to be written
+	 */
+	public int getWriteQueueSize() {
+		return writeQueueSize.getAsInt();
+	}
+
+
+	/**
+	 * Get latency histogram of an operation
+	 *
+	 * @param operation the operation
+	 * @return the latency histogram
+	 */
+	public LatencyHistogram getLatency(final Operation operation) {
+		return latencies.get(operation);
+	}
+
+
+	/**
+	 * Histogram of operation latencies, in buckets of powers of two microseconds
+	 */
+	public static final class LatencyHistogram {
+
+		// bucket i counts latencies below 2^i microseconds; the last bucket counts all larger latencies
+		private final static int BUCKET_COUNT = 24;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+
+
+		private LatencyHistogram() {
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+
+		private void record(final long nanos) {
+			final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+			final int bucket = Math.min(BUCKET_COUNT - 1, Long.SIZE - Long.numberOfLeadingZeros(micros));
+			buckets[bucket].increment();
+			count.increment();
+			totalNanos.add(nanos);
+		}
+
+
+		/**
+		 * Get number of recorded operations
+		 *
+		 * @return the number of operations
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+
+		/**
+		 * Get mean latency
+		 *
+		 * @return the mean latency in microseconds, or zero if no operations were recorded
+		 */
+		public long getMeanMicros() {
+			final long n = count.sum();
+			return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / n);
+		}
+
+
+		/**
+		 * Get upper bound of the bucket containing a percentile of latencies
+		 *
+		 * @param percentile the percentile, from 0 to 100
+		 * @return the latency in microseconds that the percentile of operations completed within,
+		 * or zero if no operations were recorded
+		 */
+		public long getPercentileMicros(final double percentile) {
+
+			final long n = count.sum();
+			if (n == 0) {
+				return 0;
+			}
+
+			final long rank = (long) Math.ceil(n * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				seen += buckets[i].sum();
+				if (seen >= rank) {
+					return 1L << i;
+				}
+			}
+			return 1L << (BUCKET_COUNT - 1);
+		}
+	}
+
+}
@@ -22,6 +22,7 @@ import com.winterhavenmc.deathcompass.PluginMain;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemFlag;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
@@ -38,6 +39,12 @@ public final class DeathCompassFactory {
 	// create itemTag string
 	private final NamespacedKey itemKey;
 
+	// death compass item stack built from current language file, never handed out or modified
+	private ItemStack prototype;
+
+	// metadata of prototype, kept so comparisons copy only the metadata of the item checked
+	private ItemMeta prototypeMeta;
+
 
 	/**
 	 * Private constructor to prevent class instantiation
@@ -45,15 +52,27 @@ public final class DeathCompassFactory {
 	public DeathCompassFactory(final PluginMain plugin) {
 		this.plugin = plugin;
 		this.itemKey = new NamespacedKey(plugin, "isItem");
+		this.prototype = buildPrototype();
+		this.prototypeMeta = prototype.getItemMeta();
 	}
 
 
 	/**
-	 * Create a DeathCompass item stack with custom display name and lore
+	 * Rebuild death compass prototype with display name and lore from the current
+	 * language file. Must be called after messages are reloaded.
+	 */
+	public void reload() {
+		this.prototype = buildPrototype();
+		this.prototypeMeta = prototype.getItemMeta();
+	}
+
+
+	/**
+	 * Build a DeathCompass item stack with custom display name and lore
 	 *
 	 * @return ItemStack of DeathCompass
 	 */
-	public ItemStack createItem() {
+	private ItemStack buildPrototype() {
 
 		// create compass item stack
 		final ItemStack newItem = new ItemStack(Material.COMPASS, 1);
@@ -66,6 +85,62 @@ public final class DeathCompassFactory {
 	}
 
 
+	/**
+	 * Create a DeathCompass item stack with custom display name and lore
+	 *
+	 * @return ItemStack of DeathCompass
+	 */
+	public ItemStack createItem() {
+		return prototype.clone();
+	}
+
+
+	/**
+	 * Check if itemStack is similar to a DeathCompass item created with the current language file,
+	 * ignoring stack size, without creating a DeathCompass item for comparison
+	 *
+	 * @param itemStack the ItemStack to check
+	 * @return {@code true} if itemStack is similar to a DeathCompass item, {@code false} if not
+	 */
+	public boolean isSimilar(final ItemStack itemStack) {
+
+		// if passed ItemStack is null, return false
+		if (itemStack == null) {
+			return false;
+		}
+
+		// if item stack is not a compass return false, without copying its metadata
+		if (!itemStack.getType().equals(Material.COMPASS)) {
+			return false;
+		}
+
+		// if item stack does not have metadata return false
+		if (!itemStack.hasItemMeta()) {
+			return false;
+		}
+
+		// compare metadata of item stack with cached metadata of prototype
+		return plugin.getServer().getItemFactory().equals(prototypeMeta, itemStack.getItemMeta());
+	}
+
+
+	/**
+	 * Check if inventory contains at least one DeathCompass item, without creating
+	 * a DeathCompass item for comparison
+	 *
+	 * @param inventory the inventory to check
+	 * @return {@code true} if inventory contains a DeathCompass item, {@code false} if not
+	 */
+	public boolean isInInventory(final Inventory inventory) {
+		for (ItemStack itemStack : inventory.getStorageContents()) {
+			if (isSimilar(itemStack)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
 	/**
 	 * Check if itemStack is a DeathCompass item
 	 *
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.deathcompass.util;
+
+import org.bukkit.plugin.Plugin;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Executor that runs tasks on the server main thread, for handing results of
+ * asynchronous datastore operations back to code that uses the Bukkit API.
+ * <p>
+ * Example: {@code dataStore.selectRecordAsync(playerUid, worldUid).thenAcceptAsync(consumer, mainThreadExecutor)}
+ */
+public final class MainThreadExecutor implements Executor {
+
+	// reference to plugin main class
+	private final Plugin plugin;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param plugin reference to plugin main class
+	 */
+	public MainThreadExecutor(final Plugin plugin) {
+		this.plugin = Objects.requireNonNull(plugin);
+	}
+
+
+	/**
+	 * Run task on main thread; immediately if called from the main thread,
+	 * otherwise on the next server tick
+	 *
+	 * @param task the task to run
+	 */
+	@Override
+	public void execute(final Runnable task) {
+
+		// if already on main thread, run task now
+		if (plugin.getServer().isPrimaryThread()) {
+			task.run();
+			return;
+		}
+
+		// if plugin has been disabled, the scheduler will not accept tasks
+		if (!plugin.isEnabled()) {
+			return;
+		}
+
+		plugin.getServer().getScheduler().runTask(plugin, task);
+	}
+
+}
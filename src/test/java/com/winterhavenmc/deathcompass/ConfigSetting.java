@@ -9,6 +9,23 @@ public enum ConfigSetting {
 	PREVENT_STORAGE("true"),
 	TARGET_DELAY("20"),
 	SOUND_EFFECTS("true"),
+	CACHE_MAX_ENTRIES("10000"),
+	CACHE_EXPIRE_AFTER_ACCESS("1800"),
+	CACHE_LOAD_WHOLE_PLAYER("true"),
+	CACHE_PRELOAD_ON_WORLD_LOAD("false"),
+	STORAGE_WRITE_BATCH_SIZE("100"),
+	STORAGE_WRITE_LINGER("20"),
+	STORAGE_WRITE_DELAY("10"),
+	STORAGE_INSERT_CHUNK_SIZE("1000"),
+	STORAGE_JOURNAL_MODE("WAL"),
+	STORAGE_SYNCHRONOUS("NORMAL"),
+	STORAGE_CACHE_SIZE("-8000"),
+	STORAGE_MMAP_SIZE("67108864"),
+	STORAGE_TEMP_STORE("MEMORY"),
+	STORAGE_READER_CONNECTIONS("2"),
+	STORAGE_FETCH_SIZE("1000"),
+	STORAGE_CHECKPOINT_INTERVAL("60"),
+	STORAGE_CHECKPOINT_TRUNCATE_SIZE("16"),
 	;
 
 	private final String value;
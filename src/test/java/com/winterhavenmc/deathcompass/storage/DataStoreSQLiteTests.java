@@ -0,0 +1,299 @@
+package com.winterhavenmc.deathcompass.storage;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.WorldMock;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class DataStoreSQLiteTests {
+
+	private ServerMock server;
+	private JavaPlugin plugin;
+	private File dataFile;
+	private DataStoreSQLite dataStore;
+
+	private WorldMock world1;
+	private WorldMock world2;
+
+	@BeforeAll
+	public void setUp() {
+		// Start the mock server
+		server = MockBukkit.mock();
+
+		// create a mock plugin to own the datastore file
+		plugin = MockBukkit.createMockPlugin();
+		//noinspection ResultOfMethodCallIgnored
+		plugin.getDataFolder().mkdirs();
+		dataFile = new File(plugin.getDataFolder(), DataStoreType.SQLITE.getStorageName());
+
+		world1 = server.addSimpleWorld("world");
+		world2 = server.addSimpleWorld("world_nether");
+	}
+
+	@AfterAll
+	public void tearDown() {
+		// Stop the mock server
+		MockBukkit.unmock();
+	}
+
+	@BeforeEach
+	public void deleteDataFiles() {
+		File[] files = plugin.getDataFolder().listFiles((dir, name) -> name.startsWith(dataFile.getName()));
+		if (files != null) {
+			for (File file : files) {
+				Assertions.assertTrue(file.delete(), "could not delete " + file.getName() + ".");
+			}
+		}
+	}
+
+	@AfterEach
+	public void closeDataStore() {
+		if (dataStore != null) {
+			if (dataStore.isInitialized()) {
+				dataStore.close();
+			}
+			dataStore = null;
+		}
+	}
+
+	private Connection openDataFile() throws SQLException {
+		return DriverManager.getConnection("jdbc:sqlite:" + dataFile.getPath());
+	}
+
+	private static int getUserVersion(final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+			return rs.next() ? rs.getInt(1) : -1;
+		}
+	}
+
+	private static boolean hasTable(final Connection connection, final String name) throws SQLException {
+		try (PreparedStatement preparedStatement = connection.prepareStatement(
+				"SELECT name FROM sqlite_master WHERE type='table' AND name=?")) {
+			preparedStatement.setString(1, name);
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	private static int countRows(final Connection connection, final String table) throws SQLException {
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	/**
+	 * Create schema v1 table, as written by earlier plugin versions
+	 */
+	private void createV1Table(final Connection connection, final int userVersion) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("CREATE TABLE deathlocations ("
+					+ "playerUidMsb BIGINT NOT NULL, playerUidLsb BIGINT NOT NULL, worldname VARCHAR(255), "
+					+ "worldUidMsb BIGINT NOT NULL, worldUidLsb BIGINT NOT NULL, "
+					+ "x DOUBLE NOT NULL, y DOUBLE NOT NULL, z DOUBLE NOT NULL, "
+					+ "UNIQUE (playerUidMsb,playerUidLsb,worldUidMsb,worldUidLsb))");
+			statement.executeUpdate("PRAGMA user_version = " + userVersion);
+		}
+	}
+
+	private void insertV1Row(final Connection connection, final DeathRecord deathRecord, final String worldName)
+			throws SQLException {
+		try (PreparedStatement preparedStatement = connection.prepareStatement(
+				"INSERT INTO deathlocations VALUES (?,?,?,?,?,?,?,?)")) {
+			preparedStatement.setLong(1, deathRecord.getPlayerUid().getMostSignificantBits());
+			preparedStatement.setLong(2, deathRecord.getPlayerUid().getLeastSignificantBits());
+			preparedStatement.setString(3, worldName);
+			preparedStatement.setLong(4, deathRecord.getWorldUid().getMostSignificantBits());
+			preparedStatement.setLong(5, deathRecord.getWorldUid().getLeastSignificantBits());
+			preparedStatement.setDouble(6, deathRecord.getX());
+			preparedStatement.setDouble(7, deathRecord.getY());
+			preparedStatement.setDouble(8, deathRecord.getZ());
+			preparedStatement.executeUpdate();
+		}
+	}
+
+	private DataStoreSQLite initializeDataStore() throws Exception {
+		dataStore = new DataStoreSQLite(plugin);
+		dataStore.initialize();
+		return dataStore;
+	}
+
+	private static void assertRecordEquals(final DeathRecord expected, final Optional<DeathRecord> actual) {
+		Assertions.assertTrue(actual.isPresent(), "record is not stored.");
+		Assertions.assertEquals(expected.getX(), actual.get().getX());
+		Assertions.assertEquals(expected.getY(), actual.get().getY());
+		Assertions.assertEquals(expected.getZ(), actual.get().getZ());
+	}
+
+	@Nested
+	@DisplayName("Test schema migration.")
+	class MigrationTests {
+
+		@Test
+		@DisplayName("schema v0 table is migrated to schema v2.")
+		void MigratesV0() throws Exception {
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), world1.getUID(), 1.5, 64, -3.25);
+			try (Connection connection = openDataFile(); Statement statement = connection.createStatement()) {
+				statement.executeUpdate("CREATE TABLE deathlocations ("
+						+ "playerid VARCHAR(36) NOT NULL, worldname VARCHAR(255) NOT NULL, "
+						+ "x DOUBLE, y DOUBLE, z DOUBLE, UNIQUE (playerid, worldname))");
+				statement.executeUpdate("INSERT INTO deathlocations VALUES ('"
+						+ deathRecord.getPlayerUid() + "', 'world', 1.5, 64, -3.25)");
+
+				// rows with an unknown world or an invalid player uuid cannot be keyed, so are skipped
+				statement.executeUpdate("INSERT INTO deathlocations VALUES ('"
+						+ UUID.randomUUID() + "', 'deleted_world', 1, 2, 3)");
+				statement.executeUpdate("INSERT INTO deathlocations VALUES ('not-a-uuid', 'world', 1, 2, 3)");
+			}
+
+			initializeDataStore();
+			assertRecordEquals(deathRecord, dataStore.selectRecord(deathRecord.getPlayerUid(), world1.getUID()));
+			dataStore.close();
+
+			try (Connection connection = openDataFile()) {
+				Assertions.assertEquals(2, getUserVersion(connection));
+				Assertions.assertFalse(hasTable(connection, "deathlocations"), "schema v0 table was not dropped.");
+				Assertions.assertEquals(1, countRows(connection, "deathrecords"));
+				Assertions.assertEquals(1, countRows(connection, "worlds"));
+			}
+		}
+
+		@Test
+		@DisplayName("schema v1 table is migrated to schema v2.")
+		void MigratesV1() throws Exception {
+			DeathRecord loaded = new DeathRecord(UUID.randomUUID(), world1.getUID(), 1, 2, 3);
+			DeathRecord otherWorld = new DeathRecord(loaded.getPlayerUid(), world2.getUID(), 4, 5, 6);
+			DeathRecord unloaded = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 7, 8, 9);
+			try (Connection connection = openDataFile()) {
+				createV1Table(connection, 1);
+				insertV1Row(connection, loaded, "world");
+				insertV1Row(connection, otherWorld, "world_nether");
+				insertV1Row(connection, unloaded, "unloaded_world");
+			}
+
+			initializeDataStore();
+			assertRecordEquals(loaded, dataStore.selectRecord(loaded.getPlayerUid(), world1.getUID()));
+			assertRecordEquals(otherWorld, dataStore.selectRecord(otherWorld.getPlayerUid(), world2.getUID()));
+			dataStore.close();
+
+			// schema v1 rows are keyed by world uid, so rows of worlds not loaded are kept
+			try (Connection connection = openDataFile()) {
+				Assertions.assertEquals(2, getUserVersion(connection));
+				Assertions.assertFalse(hasTable(connection, "deathlocations"), "schema v1 table was not dropped.");
+				Assertions.assertEquals(3, countRows(connection, "deathrecords"));
+				Assertions.assertEquals(3, countRows(connection, "worlds"));
+			}
+		}
+
+		@Test
+		@DisplayName("schema v2 database is opened unchanged.")
+		void OpensV2() throws Exception {
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), world1.getUID(), 1, 2, 3);
+			initializeDataStore();
+			dataStore.insertRecord(deathRecord);
+			dataStore.close();
+
+			initializeDataStore();
+			assertRecordEquals(deathRecord, dataStore.selectRecord(deathRecord.getPlayerUid(), world1.getUID()));
+		}
+
+		@Test
+		@DisplayName("database with unrecognized schema version is not migrated.")
+		void RefusesUnknownVersion() throws Exception {
+			try (Connection connection = openDataFile()) {
+				createV1Table(connection, 7);
+				insertV1Row(connection, new DeathRecord(UUID.randomUUID(), world1.getUID(), 1, 2, 3), "world");
+			}
+
+			dataStore = new DataStoreSQLite(plugin);
+			Assertions.assertThrows(SQLException.class, dataStore::initialize);
+			dataStore.close();
+
+			try (Connection connection = openDataFile()) {
+				Assertions.assertEquals(7, getUserVersion(connection));
+				Assertions.assertTrue(hasTable(connection, "deathlocations"), "table of unknown version was dropped.");
+				Assertions.assertEquals(1, countRows(connection, "deathlocations"));
+				Assertions.assertFalse(hasTable(connection, "deathrecords"), "schema v2 table was created.");
+			}
+		}
+	}
+
+	@Nested
+	@DisplayName("Test bulk player select.")
+	class SelectRecordsTests {
+
+		/**
+		 * Store a record in each world for some players, and return all stored records
+		 */
+		private List<DeathRecord> storeRecords(final List<UUID> playerUids) {
+			List<DeathRecord> deathRecords = new ArrayList<>();
+			for (int i = 0; i < playerUids.size(); i++) {
+				deathRecords.add(new DeathRecord(playerUids.get(i), world1.getUID(), i, 0, 0));
+				if (i % 2 == 0) {
+					deathRecords.add(new DeathRecord(playerUids.get(i), world2.getUID(), i, 1, 0));
+				}
+			}
+			dataStore.insertRecords(deathRecords);
+			dataStore.sync();
+			return deathRecords;
+		}
+
+		private void assertSelected(final List<UUID> playerUids, final List<DeathRecord> expected) {
+			Collection<DeathRecord> selected = dataStore.selectRecords(playerUids);
+			Set<RecordKey> keys = new HashSet<>();
+			for (DeathRecord deathRecord : selected) {
+				Assertions.assertTrue(keys.add(RecordKey.of(deathRecord)), "record was returned more than once.");
+			}
+			Assertions.assertEquals(expected.size(), selected.size());
+			for (DeathRecord deathRecord : expected) {
+				Assertions.assertTrue(keys.contains(RecordKey.of(deathRecord)), "stored record was not returned.");
+			}
+		}
+
+		@Test
+		@DisplayName("records of players in a short chunk are returned once.")
+		void ShortChunk() throws Exception {
+			initializeDataStore();
+			List<UUID> playerUids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+			List<DeathRecord> deathRecords = storeRecords(playerUids);
+
+			assertSelected(playerUids, deathRecords);
+		}
+
+		@Test
+		@DisplayName("records of players in several chunks are returned once.")
+		void SeveralChunks() throws Exception {
+			initializeDataStore();
+			List<UUID> playerUids = new ArrayList<>();
+			for (int i = 0; i < 250; i++) {
+				playerUids.add(UUID.randomUUID());
+			}
+			List<DeathRecord> deathRecords = storeRecords(playerUids);
+
+			assertSelected(playerUids, deathRecords);
+		}
+
+		@Test
+		@DisplayName("players without records are not matched by padding.")
+		void PlayersWithoutRecords() throws Exception {
+			initializeDataStore();
+			List<UUID> storedPlayers = List.of(UUID.randomUUID(), UUID.randomUUID());
+			List<DeathRecord> deathRecords = storeRecords(storedPlayers);
+			dataStore.insertRecord(new DeathRecord(UUID.randomUUID(), world1.getUID(), 9, 9, 9));
+			dataStore.sync();
+
+			List<UUID> playerUids = new ArrayList<>(storedPlayers);
+			playerUids.add(UUID.randomUUID());
+			assertSelected(playerUids, deathRecords);
+		}
+	}
+
+}
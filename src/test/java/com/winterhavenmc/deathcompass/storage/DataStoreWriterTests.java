@@ -0,0 +1,363 @@
+package com.winterhavenmc.deathcompass.storage;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.junit.jupiter.api.*;
+import org.sqlite.Function;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class DataStoreWriterTests {
+
+	private JavaPlugin plugin;
+	private Connection connection;
+	private StatementCache statementCache;
+	private final Object connectionLock = new Object();
+	private DataStoreWriter writer;
+
+	@BeforeAll
+	public void setUp() {
+		// Start the mock server
+		MockBukkit.mock();
+
+		// create a mock plugin to own the writer thread
+		plugin = MockBukkit.createMockPlugin();
+	}
+
+	@AfterAll
+	public void tearDown() {
+		// Stop the mock server
+		MockBukkit.unmock();
+	}
+
+	@BeforeEach
+	public void openConnection() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Queries.getQuery("CreateWorldTable"));
+			statement.executeUpdate(Queries.getQuery("CreateDeathRecordTable"));
+		}
+		statementCache = new StatementCache(connection);
+	}
+
+	@AfterEach
+	public void closeConnection() throws SQLException {
+		if (writer != null) {
+			writer.shutdown();
+			writer = null;
+		}
+		statementCache.close();
+		connection.close();
+	}
+
+	/**
+	 * Create writer holding changes for the given write-behind delay
+	 */
+	private DataStoreWriter newWriter(final long writeDelaySeconds) {
+		plugin.getConfig().set("storage-write-delay", writeDelaySeconds);
+		plugin.getConfig().set("storage-write-linger", 0);
+		plugin.getConfig().set("storage-write-batch-size", 100);
+		writer = new DataStoreWriter(plugin, connection, statementCache, connectionLock, new StorageMetrics());
+		return writer;
+	}
+
+	/**
+	 * Make the next record inserts fail, running an action on the writer thread at each failure
+	 */
+	private void failInserts(final int failures, final Runnable onFailure) throws SQLException {
+		final AtomicInteger remaining = new AtomicInteger(failures);
+		Function.create(connection, "insert_fails", new Function() {
+			@Override
+			protected void xFunc() throws SQLException {
+				boolean fail = remaining.getAndDecrement() > 0;
+				if (fail) {
+					onFailure.run();
+				}
+				result(fail ? 1 : 0);
+			}
+		});
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("CREATE TEMP TRIGGER fail_insert BEFORE INSERT ON deathrecords "
+					+ "WHEN insert_fails() BEGIN SELECT RAISE(ABORT, 'insert failed'); END");
+		}
+	}
+
+	private int countRecords() throws SQLException {
+		synchronized (connectionLock) {
+			try (Statement statement = connection.createStatement();
+			     ResultSet rs = statement.executeQuery(Queries.getQuery("CountRecords"))) {
+				return rs.next() ? rs.getInt(1) : 0;
+			}
+		}
+	}
+
+	private Optional<double[]> readCoordinates(final RecordKey recordKey) throws SQLException {
+		synchronized (connectionLock) {
+			try (PreparedStatement preparedStatement = connection.prepareStatement(Queries.getQuery("SelectRecord"))) {
+				preparedStatement.setBytes(1, recordKey.toBytes());
+				try (ResultSet rs = preparedStatement.executeQuery()) {
+					if (rs.next()) {
+						return Optional.of(new double[] { rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z") });
+					}
+					return Optional.empty();
+				}
+			}
+		}
+	}
+
+	private void assertStored(final DeathRecord deathRecord) throws SQLException {
+		Optional<double[]> coordinates = readCoordinates(RecordKey.of(deathRecord));
+		Assertions.assertTrue(coordinates.isPresent(), "record is not stored.");
+		Assertions.assertEquals(deathRecord.getX(), coordinates.get()[0]);
+		Assertions.assertEquals(deathRecord.getY(), coordinates.get()[1]);
+		Assertions.assertEquals(deathRecord.getZ(), coordinates.get()[2]);
+	}
+
+	@Nested
+	@DisplayName("Test write-behind buffer.")
+	class BufferTests {
+
+		@Test
+		@DisplayName("changes to the same key are coalesced into one write.")
+		void CoalescesSameKey() throws Exception {
+			newWriter(60);
+			UUID playerUid = UUID.randomUUID();
+			UUID worldUid = UUID.randomUUID();
+			DeathRecord first = new DeathRecord(playerUid, worldUid, 1, 2, 3);
+			DeathRecord latest = new DeathRecord(playerUid, worldUid, 4, 5, 6);
+			DeathRecord other = new DeathRecord(UUID.randomUUID(), worldUid, 7, 8, 9);
+
+			writer.enqueue(first);
+			writer.enqueue(latest);
+			writer.enqueue(other);
+
+			Assertions.assertEquals(2, writer.pendingCount(), "changes to same key were not coalesced.");
+			Optional<DeathRecord> pending = writer.getPending(Set.of(playerUid)).get(RecordKey.of(latest));
+			Assertions.assertNotNull(pending, "pending change is not returned.");
+			Assertions.assertTrue(pending.isPresent());
+			Assertions.assertEquals(latest.getX(), pending.get().getX());
+
+			writer.start();
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush timed out.");
+
+			Assertions.assertEquals(2, countRecords());
+			assertStored(latest);
+			assertStored(other);
+		}
+
+		@Test
+		@DisplayName("changes are held for write-behind delay until flushed.")
+		void HeldUntilFlush() throws Exception {
+			newWriter(60);
+			writer.start();
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+
+			writer.enqueue(deathRecord);
+			Thread.sleep(200);
+
+			Assertions.assertEquals(0, countRecords(), "change was written before write-behind delay.");
+			Assertions.assertEquals(1, writer.pendingCount());
+
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush timed out.");
+
+			Assertions.assertEquals(0, writer.pendingCount());
+			Assertions.assertTrue(writer.getPending(Set.of(deathRecord.getPlayerUid())).isEmpty(),
+					"committed change is still pending.");
+			assertStored(deathRecord);
+		}
+
+		@Test
+		@DisplayName("changes are written after write-behind delay.")
+		void WrittenAfterDelay() throws Exception {
+			newWriter(1);
+			writer.start();
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+
+			writer.enqueue(deathRecord);
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (countRecords() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertStored(deathRecord);
+		}
+
+		@Test
+		@DisplayName("shutdown writes pending changes without waiting for delay.")
+		void ShutdownDrains() throws Exception {
+			newWriter(60);
+			writer.start();
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+
+			writer.enqueue(deathRecord);
+			writer.shutdown();
+			writer = null;
+
+			assertStored(deathRecord);
+		}
+	}
+
+	@Nested
+	@DisplayName("Test failed writes.")
+	class FailureTests {
+
+		@Test
+		@DisplayName("changes of a failed batch are retried.")
+		void FailedBatchRetried() throws Exception {
+			newWriter(60);
+			failInserts(1, () -> { });
+			writer.start();
+			DeathRecord first = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			DeathRecord second = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 4, 5, 6);
+
+			writer.enqueue(first);
+			writer.enqueue(second);
+
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush timed out.");
+			Assertions.assertEquals(0, writer.pendingCount());
+			assertStored(first);
+			assertStored(second);
+		}
+
+		@Test
+		@DisplayName("failed change is not retried over a newer change.")
+		void NewerChangeNotReplaced() throws Exception {
+			newWriter(60);
+			UUID playerUid = UUID.randomUUID();
+			UUID worldUid = UUID.randomUUID();
+			DeathRecord failed = new DeathRecord(playerUid, worldUid, 1, 2, 3);
+			DeathRecord latest = new DeathRecord(playerUid, worldUid, 4, 5, 6);
+
+			// a player dies again while the failing batch is written
+			failInserts(1, () -> writer.enqueue(latest));
+			writer.start();
+
+			writer.enqueue(failed);
+
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush timed out.");
+			assertStored(latest);
+		}
+
+		@Test
+		@DisplayName("change is discarded after maximum attempts.")
+		void DiscardedAfterMaxAttempts() throws Exception {
+			newWriter(60);
+			failInserts(Integer.MAX_VALUE, () -> { });
+			writer.start();
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+
+			writer.enqueue(deathRecord);
+
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush of failing change did not finish.");
+			Assertions.assertEquals(0, writer.pendingCount(), "discarded change is still pending.");
+			Assertions.assertEquals(0, countRecords());
+		}
+
+		@Test
+		@DisplayName("failed change is retried after write-behind delay.")
+		void RetriedAfterDelay() throws Exception {
+			newWriter(1);
+			failInserts(1, () -> { });
+			writer.start();
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+
+			writer.enqueue(deathRecord);
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (countRecords() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertStored(deathRecord);
+		}
+
+		@Test
+		@DisplayName("failed bulk write is reported and not retried.")
+		void BulkWriteFailureReported() throws Exception {
+			newWriter(60);
+			failInserts(1, () -> { });
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+
+			Assertions.assertEquals(0, writer.writeRecords(List.of(deathRecord)));
+			Assertions.assertEquals(0, writer.pendingCount(), "failed bulk write was queued.");
+			Assertions.assertEquals(0, countRecords());
+		}
+	}
+
+	@Nested
+	@DisplayName("Test queued deletes.")
+	class DeleteTests {
+
+		@Test
+		@DisplayName("delete replaces pending record and removes stored record.")
+		void DeleteReplacesPendingRecord() throws Exception {
+			newWriter(60);
+			DeathRecord stored = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			Assertions.assertEquals(1, writer.writeRecords(List.of(stored)));
+			writer.start();
+
+			writer.enqueue(new DeathRecord(stored.getPlayerUid(), stored.getWorldUid(), 4, 5, 6));
+			writer.enqueueDelete(RecordKey.of(stored));
+
+			Assertions.assertEquals(1, writer.pendingCount(), "delete did not replace pending record.");
+			Optional<DeathRecord> pending = writer.getPending(Set.of(stored.getPlayerUid())).get(RecordKey.of(stored));
+			Assertions.assertNotNull(pending, "pending delete is not returned.");
+			Assertions.assertFalse(pending.isPresent(), "pending delete is returned as a record.");
+
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush timed out.");
+
+			Assertions.assertFalse(readCoordinates(RecordKey.of(stored)).isPresent(), "deleted record is stored.");
+		}
+
+		@Test
+		@DisplayName("record queued after delete replaces it.")
+		void RecordReplacesPendingDelete() throws Exception {
+			newWriter(60);
+			DeathRecord stored = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			DeathRecord latest = new DeathRecord(stored.getPlayerUid(), stored.getWorldUid(), 4, 5, 6);
+			writer.writeRecords(List.of(stored));
+			writer.start();
+
+			writer.enqueueDelete(RecordKey.of(stored));
+			writer.enqueue(latest);
+
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush timed out.");
+			assertStored(latest);
+		}
+
+		@Test
+		@DisplayName("bulk write replaces earlier pending delete.")
+		void BulkWriteReplacesPendingDelete() throws Exception {
+			newWriter(60);
+			DeathRecord stored = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			DeathRecord latest = new DeathRecord(stored.getPlayerUid(), stored.getWorldUid(), 4, 5, 6);
+			writer.writeRecords(List.of(stored));
+
+			writer.enqueueDelete(RecordKey.of(stored));
+			writer.writeRecords(List.of(latest));
+
+			Assertions.assertEquals(0, writer.pendingCount(), "pending delete was not replaced by bulk write.");
+
+			writer.start();
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush timed out.");
+			assertStored(latest);
+		}
+
+		@Test
+		@DisplayName("delete of missing record is written.")
+		void DeleteMissingRecord() throws Exception {
+			newWriter(60);
+			writer.start();
+
+			writer.enqueueDelete(new RecordKey(UUID.randomUUID(), UUID.randomUUID()));
+
+			Assertions.assertTrue(writer.flush(5, TimeUnit.SECONDS), "flush timed out.");
+			Assertions.assertEquals(0, writer.pendingCount());
+			Assertions.assertEquals(0, countRecords());
+		}
+	}
+
+}
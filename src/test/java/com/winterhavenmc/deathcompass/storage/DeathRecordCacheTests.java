@@ -0,0 +1,337 @@
+package com.winterhavenmc.deathcompass.storage;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.WorldMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class DeathRecordCacheTests {
+
+	private ServerMock server;
+	private JavaPlugin plugin;
+	private StorageMetrics metrics;
+	private DeathRecordCache cache;
+
+	@BeforeAll
+	public void setUp() {
+		// Start the mock server
+		server = MockBukkit.mock();
+
+		// create a mock plugin to own the cache's event handlers
+		plugin = MockBukkit.createMockPlugin();
+	}
+
+	@AfterAll
+	public void tearDown() {
+		// Stop the mock server
+		MockBukkit.unmock();
+	}
+
+	@AfterEach
+	public void closeCache() {
+		if (cache != null) {
+			cache.close();
+			cache = null;
+		}
+	}
+
+	/**
+	 * Create cache with the given limits
+	 */
+	private DeathRecordCache newCache(final int maxEntries, final long expireSeconds) {
+		plugin.getConfig().set("cache-max-entries", maxEntries);
+		plugin.getConfig().set("cache-expire-after-access", expireSeconds);
+		metrics = new StorageMetrics();
+		cache = new DeathRecordCache(plugin, metrics);
+		return cache;
+	}
+
+	private static void assertRecordEquals(final DeathRecord expected, final Optional<DeathRecord> actual) {
+		Assertions.assertTrue(actual.isPresent(), "record is not cached.");
+		Assertions.assertEquals(expected.getPlayerUid(), actual.get().getPlayerUid());
+		Assertions.assertEquals(expected.getWorldUid(), actual.get().getWorldUid());
+		Assertions.assertEquals(expected.getX(), actual.get().getX());
+		Assertions.assertEquals(expected.getY(), actual.get().getY());
+		Assertions.assertEquals(expected.getZ(), actual.get().getZ());
+	}
+
+	@Nested
+	@DisplayName("Test cache entries.")
+	class EntryTests {
+
+		@Test
+		@DisplayName("put record is returned by get.")
+		void PutThenGet() {
+			newCache(100, 0);
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1.5, 64, -3.25);
+			cache.put(deathRecord);
+			assertRecordEquals(deathRecord, cache.get(deathRecord.getPlayerUid(), deathRecord.getWorldUid()));
+		}
+
+		@Test
+		@DisplayName("putIfAbsent does not replace cached record.")
+		void PutIfAbsentKeepsRecord() {
+			newCache(100, 0);
+			UUID playerUid = UUID.randomUUID();
+			UUID worldUid = UUID.randomUUID();
+			DeathRecord newer = new DeathRecord(playerUid, worldUid, 1, 2, 3);
+			cache.put(newer);
+			cache.putIfAbsent(new DeathRecord(playerUid, worldUid, 4, 5, 6));
+			assertRecordEquals(newer, cache.get(playerUid, worldUid));
+		}
+
+		@Test
+		@DisplayName("removed record is cached as absent.")
+		void RemoveCachesAbsent() {
+			newCache(100, 0);
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			cache.put(deathRecord);
+			cache.remove(deathRecord.getPlayerUid(), deathRecord.getWorldUid());
+			Assertions.assertFalse(cache.get(deathRecord.getPlayerUid(), deathRecord.getWorldUid()).isPresent(),
+					"removed record is returned.");
+			Assertions.assertTrue(cache.isAbsent(deathRecord.getPlayerUid(), deathRecord.getWorldUid()),
+					"removed record is not cached as absent.");
+		}
+
+		@Test
+		@DisplayName("update does not cache record that was not cached.")
+		void UpdateOnlyIfFound() {
+			newCache(100, 0);
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			cache.update(deathRecord);
+			Assertions.assertFalse(cache.get(deathRecord.getPlayerUid(), deathRecord.getWorldUid()).isPresent(),
+					"record not previously cached was cached by update.");
+		}
+
+		@Test
+		@DisplayName("table keeps all entries when it grows.")
+		void TableGrows() {
+			newCache(10000, 0);
+			UUID worldUid = UUID.randomUUID();
+			List<DeathRecord> deathRecords = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), worldUid, i, i + 1, i + 2);
+				deathRecords.add(deathRecord);
+				cache.put(deathRecord);
+			}
+			for (DeathRecord deathRecord : deathRecords) {
+				assertRecordEquals(deathRecord, cache.get(deathRecord.getPlayerUid(), worldUid));
+			}
+			Assertions.assertEquals(1000, metrics.getCacheSize());
+		}
+	}
+
+	@Nested
+	@DisplayName("Test cache eviction and expiry.")
+	class EvictionTests {
+
+		@Test
+		@DisplayName("least recently accessed entries are evicted past maximum.")
+		void EvictsLeastRecentlyAccessed() {
+			newCache(10, 0);
+			UUID worldUid = UUID.randomUUID();
+			List<UUID> playerUids = new ArrayList<>();
+			for (int i = 0; i < 11; i++) {
+				UUID playerUid = UUID.randomUUID();
+				playerUids.add(playerUid);
+				cache.put(new DeathRecord(playerUid, worldUid, i, 0, 0));
+			}
+
+			// cache is reduced to a tenth below maximum, dropping the oldest entries
+			Assertions.assertEquals(9, metrics.getCacheSize());
+			Assertions.assertEquals(2, metrics.getCacheEvictions());
+			Assertions.assertFalse(cache.get(playerUids.get(0), worldUid).isPresent(), "oldest entry not evicted.");
+			Assertions.assertFalse(cache.get(playerUids.get(1), worldUid).isPresent(), "second oldest entry not evicted.");
+			for (int i = 2; i < 11; i++) {
+				Assertions.assertTrue(cache.get(playerUids.get(i), worldUid).isPresent(), "recent entry was evicted.");
+			}
+		}
+
+		@Test
+		@DisplayName("eviction removes loaded mark of evicted player.")
+		void EvictionRemovesLoadedMark() {
+			newCache(10, 0);
+			UUID worldUid = UUID.randomUUID();
+			UUID loadedPlayerUid = UUID.randomUUID();
+			cache.putPlayer(loadedPlayerUid, List.of(new DeathRecord(loadedPlayerUid, worldUid, 1, 2, 3)), cache.getWorldLoads());
+			Assertions.assertTrue(cache.isPlayerLoaded(loadedPlayerUid));
+
+			for (int i = 0; i < 10; i++) {
+				cache.put(new DeathRecord(UUID.randomUUID(), worldUid, i, 0, 0));
+			}
+
+			Assertions.assertFalse(cache.isPlayerLoaded(loadedPlayerUid), "evicted player is still marked loaded.");
+			Assertions.assertFalse(cache.isAbsent(loadedPlayerUid, worldUid), "evicted record is reported absent.");
+		}
+
+		@Test
+		@DisplayName("entries expire after access time.")
+		void EntriesExpire() throws InterruptedException {
+			newCache(100, 1);
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			cache.put(deathRecord);
+			Assertions.assertTrue(cache.get(deathRecord.getPlayerUid(), deathRecord.getWorldUid()).isPresent());
+
+			Thread.sleep(1100);
+
+			Assertions.assertFalse(cache.get(deathRecord.getPlayerUid(), deathRecord.getWorldUid()).isPresent(),
+					"expired entry is returned.");
+		}
+
+		@Test
+		@DisplayName("expired record of loaded player is not reported absent.")
+		void ExpiredRecordOfLoadedPlayerNotAbsent() throws InterruptedException {
+			newCache(100, 1);
+			UUID playerUid = UUID.randomUUID();
+			UUID worldUid = UUID.randomUUID();
+			cache.putPlayer(playerUid, List.of(new DeathRecord(playerUid, worldUid, 1, 2, 3)), cache.getWorldLoads());
+			Assertions.assertTrue(cache.isPlayerLoaded(playerUid));
+
+			Thread.sleep(1100);
+
+			// the stored record is no longer cached, so it must be looked up in the datastore
+			Assertions.assertFalse(cache.isAbsent(playerUid, worldUid), "expired record is reported absent.");
+			Assertions.assertFalse(cache.get(playerUid, worldUid).isPresent(), "expired entry is returned.");
+			Assertions.assertFalse(cache.isPlayerLoaded(playerUid), "player with expired entry is still marked loaded.");
+		}
+	}
+
+	@Nested
+	@DisplayName("Test loaded players and world partitions.")
+	class PartitionTests {
+
+		@Test
+		@DisplayName("world with no entry is absent for loaded player.")
+		void LoadedPlayerMissingWorldAbsent() {
+			newCache(100, 0);
+			UUID playerUid = UUID.randomUUID();
+			UUID worldUid = UUID.randomUUID();
+			cache.putPlayer(playerUid, List.of(new DeathRecord(playerUid, worldUid, 1, 2, 3)), cache.getWorldLoads());
+			Assertions.assertTrue(cache.isAbsent(playerUid, UUID.randomUUID()), "loaded player has unknown world.");
+			Assertions.assertFalse(cache.isAbsent(playerUid, worldUid), "cached record is reported absent.");
+			Assertions.assertFalse(cache.isAbsent(UUID.randomUUID(), worldUid), "unloaded player is reported absent.");
+		}
+
+		@Test
+		@DisplayName("update caches record of loaded player in world with no entry.")
+		void UpdateLoadedPlayer() {
+			newCache(100, 0);
+			UUID playerUid = UUID.randomUUID();
+			cache.putPlayer(playerUid, List.of(), cache.getWorldLoads());
+			DeathRecord deathRecord = new DeathRecord(playerUid, UUID.randomUUID(), 1, 2, 3);
+			cache.update(deathRecord);
+			Assertions.assertFalse(cache.isAbsent(playerUid, deathRecord.getWorldUid()), "updated record is reported absent.");
+			assertRecordEquals(deathRecord, cache.get(playerUid, deathRecord.getWorldUid()));
+		}
+
+		@Test
+		@DisplayName("world load removes loaded mark of all players.")
+		void WorldLoadRemovesLoadedMark() {
+			newCache(100, 0);
+			UUID playerUid = UUID.randomUUID();
+			cache.putPlayer(playerUid, List.of(), cache.getWorldLoads());
+			Assertions.assertTrue(cache.isPlayerLoaded(playerUid));
+
+			cache.onWorldLoad(new WorldLoadEvent(server.addSimpleWorld("loaded")));
+
+			Assertions.assertFalse(cache.isPlayerLoaded(playerUid), "player is still marked loaded after world load.");
+		}
+
+		@Test
+		@DisplayName("player load overlapping a world load does not mark player loaded.")
+		void WorldLoadDuringPlayerLoad() {
+			newCache(100, 0);
+			WorldMock loadedWorld = server.addSimpleWorld("arena");
+			UUID playerUid = UUID.randomUUID();
+			UUID worldUid = UUID.randomUUID();
+			DeathRecord deathRecord = new DeathRecord(playerUid, worldUid, 1, 2, 3);
+
+			// query reads records before the world is loaded, so the new world's record is skipped
+			int worldLoads = cache.getWorldLoads();
+			cache.onWorldLoad(new WorldLoadEvent(loadedWorld));
+			cache.putPlayer(playerUid, List.of(deathRecord), worldLoads);
+
+			Assertions.assertFalse(cache.isPlayerLoaded(playerUid), "player loaded during world load is marked loaded.");
+			Assertions.assertFalse(cache.isAbsent(playerUid, loadedWorld.getUID()), "record of loaded world is reported absent.");
+			assertRecordEquals(deathRecord, cache.get(playerUid, worldUid));
+		}
+
+		@Test
+		@DisplayName("world unload drops only that world's entries.")
+		void WorldUnloadDropsPartition() {
+			newCache(100, 0);
+			WorldMock unloadedWorld = server.addSimpleWorld("unloaded");
+			UUID otherWorldUid = UUID.randomUUID();
+			UUID playerUid = UUID.randomUUID();
+			DeathRecord kept = new DeathRecord(playerUid, otherWorldUid, 4, 5, 6);
+			cache.put(new DeathRecord(playerUid, unloadedWorld.getUID(), 1, 2, 3));
+			cache.put(kept);
+
+			cache.onWorldUnload(new WorldUnloadEvent(unloadedWorld));
+
+			Assertions.assertFalse(cache.get(playerUid, unloadedWorld.getUID()).isPresent(),
+					"entry of unloaded world is returned.");
+			assertRecordEquals(kept, cache.get(playerUid, otherWorldUid));
+			Assertions.assertEquals(1, metrics.getCacheSize());
+		}
+
+		@Test
+		@DisplayName("player quit removes player's entries in every world.")
+		void PlayerQuitRemovesEntries() {
+			newCache(100, 0);
+			PlayerMock player = server.addPlayer();
+			UUID otherPlayerUid = UUID.randomUUID();
+			UUID world1 = UUID.randomUUID();
+			UUID world2 = UUID.randomUUID();
+			cache.putPlayer(player.getUniqueId(), List.of(
+					new DeathRecord(player.getUniqueId(), world1, 1, 2, 3),
+					new DeathRecord(player.getUniqueId(), world2, 4, 5, 6)), cache.getWorldLoads());
+			cache.put(new DeathRecord(otherPlayerUid, world1, 7, 8, 9));
+
+			cache.onPlayerQuit(new PlayerQuitEvent(player, "quit"));
+
+			Assertions.assertFalse(cache.isPlayerLoaded(player.getUniqueId()));
+			Assertions.assertFalse(cache.get(player.getUniqueId(), world1).isPresent());
+			Assertions.assertFalse(cache.get(player.getUniqueId(), world2).isPresent());
+			Assertions.assertTrue(cache.get(otherPlayerUid, world1).isPresent(), "other player's entry was removed.");
+			Assertions.assertEquals(1, metrics.getCacheSize());
+		}
+
+		@Test
+		@DisplayName("entries survive rebuild after removals.")
+		void EntriesSurviveRebuild() {
+			newCache(10000, 0);
+			UUID worldUid = UUID.randomUUID();
+			List<DeathRecord> kept = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				PlayerMock player = server.addPlayer();
+				DeathRecord deathRecord = new DeathRecord(player.getUniqueId(), worldUid, i, 0, 0);
+				cache.put(deathRecord);
+
+				// removed slots of quitting players count toward the table load, forcing rebuilds
+				if (i % 2 == 0) {
+					cache.onPlayerQuit(new PlayerQuitEvent(player, "quit"));
+				}
+				else {
+					kept.add(deathRecord);
+				}
+			}
+			for (DeathRecord deathRecord : kept) {
+				assertRecordEquals(deathRecord, cache.get(deathRecord.getPlayerUid(), worldUid));
+			}
+			Assertions.assertEquals(kept.size(), metrics.getCacheSize());
+		}
+	}
+
+}
@@ -0,0 +1,332 @@
+package com.winterhavenmc.deathcompass.storage;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import com.winterhavenmc.deathcompass.PluginMain;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MigratingDataStoreTests {
+
+	private ServerMock server;
+	private PluginMain plugin;
+	private DataStore pluginDataStore;
+
+	@BeforeAll
+	public void setUp() {
+		// Start the mock server
+		server = MockBukkit.mock();
+
+		// start the mock plugin
+		plugin = MockBukkit.load(PluginMain.class);
+		pluginDataStore = plugin.dataStore;
+
+		// copy in several chunks
+		plugin.getConfig().set("storage-insert-chunk-size", 100);
+	}
+
+	@AfterAll
+	public void tearDown() {
+		// Stop the mock server
+		MockBukkit.unmock();
+	}
+
+	@AfterEach
+	public void restoreDataStore() {
+		plugin.dataStore = pluginDataStore;
+	}
+
+	/**
+	 * Start migration as plugin datastore, and wait for it to copy records and switch
+	 */
+	private MigratingDataStore migrate(final MemoryDataStore oldDataStore, final MemoryDataStore newDataStore) {
+		MigratingDataStore migratingDataStore = new MigratingDataStore(plugin, oldDataStore, newDataStore);
+		plugin.dataStore = migratingDataStore;
+		migratingDataStore.start();
+		server.getScheduler().waitAsyncTasksFinished();
+		server.getScheduler().performOneTick();
+		return migratingDataStore;
+	}
+
+	private static void assertRecordEquals(final DeathRecord expected, final Optional<DeathRecord> actual) {
+		Assertions.assertTrue(actual.isPresent(), "record is not stored.");
+		Assertions.assertEquals(expected.getX(), actual.get().getX());
+		Assertions.assertEquals(expected.getY(), actual.get().getY());
+		Assertions.assertEquals(expected.getZ(), actual.get().getZ());
+	}
+
+	@Nested
+	@DisplayName("Test migration.")
+	class MigrationTests {
+
+		@Test
+		@DisplayName("records are copied and reads switch to new datastore.")
+		void CopiesAndSwitches() {
+			MemoryDataStore oldDataStore = new MemoryDataStore();
+			MemoryDataStore newDataStore = new MemoryDataStore();
+			for (int i = 0; i < 250; i++) {
+				oldDataStore.insertRecord(new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), i, 0, 0));
+			}
+
+			MigratingDataStore migratingDataStore = migrate(oldDataStore, newDataStore);
+
+			Assertions.assertTrue(migratingDataStore.isComplete(), "migration did not complete.");
+			Assertions.assertEquals(250, newDataStore.countRecords());
+			for (DeathRecord deathRecord : oldDataStore.selectAllRecords()) {
+				assertRecordEquals(deathRecord, newDataStore.selectRecord(deathRecord.getPlayerUid(), deathRecord.getWorldUid()));
+			}
+			Assertions.assertSame(newDataStore, plugin.dataStore, "plugin datastore was not replaced.");
+			Assertions.assertTrue(oldDataStore.closed, "old datastore was not closed.");
+			Assertions.assertTrue(oldDataStore.deleted, "verified old datastore was not deleted.");
+			Assertions.assertFalse(newDataStore.checkpoints.containsKey(oldDataStore.getType()),
+					"conversion checkpoint was not cleared.");
+		}
+
+		@Test
+		@DisplayName("change during copy is not overwritten by copied record.")
+		void ChangeDuringCopyNotOverwritten() {
+			MemoryDataStore oldDataStore = new MemoryDataStore();
+			MemoryDataStore newDataStore = new MemoryDataStore();
+			DeathRecord changed = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			DeathRecord latest = new DeathRecord(changed.getPlayerUid(), changed.getWorldUid(), 4, 5, 6);
+			DeathRecord deleted = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 7, 8, 9);
+			oldDataStore.insertRecord(changed);
+			oldDataStore.insertRecord(deleted);
+
+			MigratingDataStore migratingDataStore = new MigratingDataStore(plugin, oldDataStore, newDataStore);
+			plugin.dataStore = migratingDataStore;
+
+			// after the copy reads the stale page, a player dies again and another record is deleted
+			List<Optional<DeathRecord>> readDuringCopy = new ArrayList<>();
+			oldDataStore.afterPageRead = () -> {
+				migratingDataStore.insertRecord(latest);
+				migratingDataStore.deleteRecord(deleted.getPlayerUid(), deleted.getWorldUid());
+				readDuringCopy.add(migratingDataStore.selectRecord(latest.getPlayerUid(), latest.getWorldUid()));
+			};
+
+			migratingDataStore.start();
+			server.getScheduler().waitAsyncTasksFinished();
+			server.getScheduler().performOneTick();
+
+			Assertions.assertEquals(1, readDuringCopy.size(), "change was not made during copy.");
+			assertRecordEquals(latest, readDuringCopy.get(0));
+			Assertions.assertTrue(migratingDataStore.isComplete(), "migration did not complete.");
+			assertRecordEquals(latest, newDataStore.selectRecord(latest.getPlayerUid(), latest.getWorldUid()));
+			Assertions.assertFalse(newDataStore.selectRecord(deleted.getPlayerUid(), deleted.getWorldUid()).isPresent(),
+					"record deleted during copy was copied.");
+			Assertions.assertTrue(oldDataStore.deleted, "verified old datastore was not deleted.");
+		}
+
+		@Test
+		@DisplayName("reads are served by old datastore until copy completes.")
+		void ReadsFromOldDuringCopy() {
+			MemoryDataStore oldDataStore = new MemoryDataStore();
+			MemoryDataStore newDataStore = new MemoryDataStore();
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			oldDataStore.insertRecord(deathRecord);
+
+			MigratingDataStore migratingDataStore = new MigratingDataStore(plugin, oldDataStore, newDataStore);
+
+			Assertions.assertFalse(migratingDataStore.isComplete());
+			assertRecordEquals(deathRecord, migratingDataStore.selectRecord(deathRecord.getPlayerUid(), deathRecord.getWorldUid()));
+			Assertions.assertFalse(newDataStore.selectRecord(deathRecord.getPlayerUid(), deathRecord.getWorldUid()).isPresent());
+		}
+
+		@Test
+		@DisplayName("copy stops and old datastore is kept when new datastore is closed.")
+		void StopsWhenNewDataStoreClosed() {
+			MemoryDataStore oldDataStore = new MemoryDataStore();
+			MemoryDataStore newDataStore = new MemoryDataStore();
+			oldDataStore.insertRecord(new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3));
+			newDataStore.close();
+
+			MigratingDataStore migratingDataStore = migrate(oldDataStore, newDataStore);
+
+			Assertions.assertFalse(migratingDataStore.isComplete(), "migration completed to closed datastore.");
+			Assertions.assertSame(migratingDataStore, plugin.dataStore);
+			Assertions.assertFalse(oldDataStore.closed, "old datastore was closed.");
+			Assertions.assertFalse(oldDataStore.deleted, "old datastore was deleted.");
+		}
+	}
+
+
+	/**
+	 * Datastore holding records in memory, standing in for a second storage type
+	 */
+	static final class MemoryDataStore implements DataStore {
+
+		// records in stored key order
+		final NavigableMap<RecordKey, DeathRecord> records =
+				new ConcurrentSkipListMap<>((a, b) -> Arrays.compareUnsigned(a.toBytes(), b.toBytes()));
+
+		final Map<DataStoreType, DeathRecord> checkpoints = new ConcurrentHashMap<>();
+
+		private final StorageMetrics metrics = new StorageMetrics();
+
+		volatile boolean initialized = true;
+		volatile boolean closed;
+		volatile boolean deleted;
+
+		// run once after the first page of records is read
+		volatile Runnable afterPageRead;
+
+		@Override
+		public void initialize(final boolean warmCache) {
+			initialized = true;
+		}
+
+		@Override
+		public boolean isInitialized() {
+			return initialized;
+		}
+
+		@Override
+		public DataStoreType getType() {
+			return DataStoreType.SQLITE;
+		}
+
+		@Override
+		public Collection<DeathRecord> selectAllRecords() {
+			return new ArrayList<>(records.values());
+		}
+
+		@Override
+		public int forEachRecord(final Consumer<DeathRecord> consumer) {
+			int count = 0;
+			for (DeathRecord deathRecord : records.values()) {
+				consumer.accept(deathRecord);
+				count++;
+			}
+			return count;
+		}
+
+		@Override
+		public long countRecords() {
+			return records.size();
+		}
+
+		@Override
+		public List<DeathRecord> selectRecordsAfter(final DeathRecord after, final int limit) {
+			Collection<DeathRecord> tail = after == null
+					? records.values()
+					: records.tailMap(RecordKey.of(after), false).values();
+			List<DeathRecord> page = new ArrayList<>();
+			for (DeathRecord deathRecord : tail) {
+				if (page.size() >= limit) {
+					break;
+				}
+				page.add(deathRecord);
+			}
+			Runnable hook = afterPageRead;
+			afterPageRead = null;
+			if (hook != null) {
+				hook.run();
+			}
+			return page;
+		}
+
+		@Override
+		public Collection<DeathRecord> selectRecordsByKey(final Collection<DeathRecord> deathRecords) {
+			Collection<DeathRecord> result = new ArrayList<>();
+			for (DeathRecord deathRecord : deathRecords) {
+				DeathRecord stored = records.get(RecordKey.of(deathRecord));
+				if (stored != null) {
+					result.add(stored);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public Optional<DeathRecord> getConversionCheckpoint(final DataStoreType sourceType) {
+			return Optional.ofNullable(checkpoints.get(sourceType));
+		}
+
+		@Override
+		public void setConversionCheckpoint(final DataStoreType sourceType, final DeathRecord lastRecord) {
+			checkpoints.put(sourceType, lastRecord);
+		}
+
+		@Override
+		public void clearConversionCheckpoint(final DataStoreType sourceType) {
+			checkpoints.remove(sourceType);
+		}
+
+		@Override
+		public Optional<DeathRecord> selectRecord(final UUID playerUUID, final UUID worldUID) {
+			return Optional.ofNullable(records.get(new RecordKey(playerUUID, worldUID)));
+		}
+
+		@Override
+		public Collection<DeathRecord> selectRecordsForPlayer(final UUID playerUUID) {
+			return selectRecords(Set.of(playerUUID));
+		}
+
+		@Override
+		public Collection<DeathRecord> selectRecords(final Collection<UUID> playerUUIDs) {
+			Collection<DeathRecord> result = new ArrayList<>();
+			for (DeathRecord deathRecord : records.values()) {
+				if (playerUUIDs.contains(deathRecord.getPlayerUid())) {
+					result.add(deathRecord);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public void insertRecord(final DeathRecord deathRecord) {
+			records.put(RecordKey.of(deathRecord), deathRecord);
+		}
+
+		@Override
+		public int insertRecords(final Collection<DeathRecord> deathRecords) {
+			for (DeathRecord deathRecord : deathRecords) {
+				insertRecord(deathRecord);
+			}
+			return deathRecords.size();
+		}
+
+		@Override
+		public Optional<DeathRecord> deleteRecord(final UUID playerUUID, final UUID worldUID) {
+			return Optional.ofNullable(records.remove(new RecordKey(playerUUID, worldUID)));
+		}
+
+		@Override
+		public Executor getExecutor() {
+			return Runnable::run;
+		}
+
+		@Override
+		public StorageMetrics getMetrics() {
+			return metrics;
+		}
+
+		@Override
+		public void close() {
+			initialized = false;
+			closed = true;
+		}
+
+		@Override
+		public void sync() {
+		}
+
+		@Override
+		public boolean delete() {
+			deleted = true;
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "Memory";
+		}
+	}
+
+}
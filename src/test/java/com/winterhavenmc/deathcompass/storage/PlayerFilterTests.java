@@ -0,0 +1,154 @@
+package com.winterhavenmc.deathcompass.storage;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PlayerFilterTests {
+
+	@TempDir
+	File tempDir;
+
+	/**
+	 * Create list of random player uuids
+	 */
+	private static List<UUID> randomPlayers(final int count) {
+		List<UUID> playerUids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			playerUids.add(UUID.randomUUID());
+		}
+		return playerUids;
+	}
+
+	@Nested
+	@DisplayName("Test filter membership.")
+	class MembershipTests {
+
+		@Test
+		@DisplayName("empty filter contains no players.")
+		void EmptyFilterContainsNone() {
+			PlayerFilter playerFilter = PlayerFilter.create(0);
+			for (UUID playerUid : randomPlayers(1000)) {
+				Assertions.assertFalse(playerFilter.mightContain(playerUid), "empty filter contains player.");
+			}
+		}
+
+		@Test
+		@DisplayName("added players are always contained.")
+		void NoFalseNegatives() {
+			List<UUID> playerUids = randomPlayers(20000);
+			PlayerFilter playerFilter = PlayerFilter.create(playerUids.size());
+			for (UUID playerUid : playerUids) {
+				playerFilter.add(playerUid);
+			}
+			for (UUID playerUid : playerUids) {
+				Assertions.assertTrue(playerFilter.mightContain(playerUid), "added player is not contained.");
+			}
+		}
+
+		@Test
+		@DisplayName("false positive rate is under target.")
+		void FalsePositiveRate() {
+			PlayerFilter playerFilter = PlayerFilter.create(10000);
+			for (UUID playerUid : randomPlayers(10000)) {
+				playerFilter.add(playerUid);
+			}
+			int falsePositives = 0;
+			for (UUID playerUid : randomPlayers(100000)) {
+				if (playerFilter.mightContain(playerUid)) {
+					falsePositives++;
+				}
+			}
+
+			// filter is sized for twice the expected players, so rate is well under one percent
+			Assertions.assertTrue(falsePositives < 1000, "false positive rate is " + falsePositives / 1000.0 + "%.");
+		}
+
+		@Test
+		@DisplayName("filter is over capacity past twice the expected players.")
+		void OverCapacity() {
+			PlayerFilter playerFilter = PlayerFilter.create(10000);
+			for (UUID playerUid : randomPlayers(20000)) {
+				playerFilter.add(playerUid);
+			}
+			Assertions.assertFalse(playerFilter.isOverCapacity(), "filter over capacity at sized player count.");
+			for (UUID playerUid : randomPlayers(1000)) {
+				playerFilter.add(playerUid);
+			}
+			Assertions.assertTrue(playerFilter.isOverCapacity(), "filter not over capacity past sized player count.");
+		}
+	}
+
+	@Nested
+	@DisplayName("Test filter file.")
+	class FileTests {
+
+		@Test
+		@DisplayName("filter read from file contains written players.")
+		void WriteReadRoundTrip() throws IOException {
+			List<UUID> playerUids = randomPlayers(5000);
+			PlayerFilter playerFilter = PlayerFilter.create(playerUids.size());
+			for (UUID playerUid : playerUids) {
+				playerFilter.add(playerUid);
+			}
+
+			File file = new File(tempDir, "players.filter");
+			playerFilter.write(file);
+			Optional<PlayerFilter> readFilter = PlayerFilter.read(file);
+
+			Assertions.assertTrue(readFilter.isPresent(), "written filter could not be read.");
+			for (UUID playerUid : playerUids) {
+				Assertions.assertTrue(readFilter.get().mightContain(playerUid), "read filter is missing player.");
+			}
+			for (UUID playerUid : randomPlayers(1000)) {
+				Assertions.assertEquals(playerFilter.mightContain(playerUid), readFilter.get().mightContain(playerUid),
+						"read filter does not match written filter.");
+			}
+			Assertions.assertFalse(readFilter.get().isOverCapacity());
+		}
+
+		@Test
+		@DisplayName("missing file reads as empty optional.")
+		void MissingFile() {
+			Assertions.assertFalse(PlayerFilter.read(new File(tempDir, "missing.filter")).isPresent());
+		}
+
+		@Test
+		@DisplayName("invalid file reads as empty optional.")
+		void InvalidFile() throws IOException {
+			File file = new File(tempDir, "invalid.filter");
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+				out.writeInt(0x12345678);
+				out.writeInt(1);
+			}
+			Assertions.assertFalse(PlayerFilter.read(file).isPresent(), "file with wrong magic number was read.");
+		}
+
+		@Test
+		@DisplayName("truncated file reads as empty optional.")
+		void TruncatedFile() throws IOException {
+			PlayerFilter playerFilter = PlayerFilter.create(100);
+			playerFilter.add(UUID.randomUUID());
+			File file = new File(tempDir, "truncated.filter");
+			playerFilter.write(file);
+
+			File truncated = new File(tempDir, "truncated2.filter");
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+			Assertions.assertFalse(PlayerFilter.read(truncated).isPresent(), "truncated file was read.");
+		}
+	}
+
+}
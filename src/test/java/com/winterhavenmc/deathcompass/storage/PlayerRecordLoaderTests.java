@@ -0,0 +1,199 @@
+package com.winterhavenmc.deathcompass.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PlayerRecordLoaderTests {
+
+	private ExecutorService executor;
+
+	// players passed to each bulk query
+	private final List<Set<UUID>> queries = new CopyOnWriteArrayList<>();
+
+	// stored records returned by bulk query
+	private final Map<UUID, List<DeathRecord>> storedRecords = new ConcurrentHashMap<>();
+
+	@BeforeEach
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+		queries.clear();
+		storedRecords.clear();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Bulk query returning stored records of players, recording the players queried
+	 */
+	private Collection<DeathRecord> query(final Collection<UUID> playerUids) {
+		queries.add(new HashSet<>(playerUids));
+		List<DeathRecord> result = new ArrayList<>();
+		for (UUID playerUid : playerUids) {
+			result.addAll(storedRecords.getOrDefault(playerUid, Collections.emptyList()));
+		}
+		return result;
+	}
+
+	private DeathRecord storeRecord(final UUID playerUid) {
+		DeathRecord deathRecord = new DeathRecord(playerUid, UUID.randomUUID(), 1, 2, 3);
+		storedRecords.computeIfAbsent(playerUid, k -> new ArrayList<>()).add(deathRecord);
+		return deathRecord;
+	}
+
+	@Nested
+	@DisplayName("Test coalesced loads.")
+	class LoadTests {
+
+		@Test
+		@DisplayName("requests for same player share one load.")
+		void SamePlayerSharesLoad() throws Exception {
+			PlayerRecordLoader loader = new PlayerRecordLoader(PlayerRecordLoaderTests.this::query, executor);
+			UUID playerUid = UUID.randomUUID();
+			DeathRecord deathRecord = storeRecord(playerUid);
+
+			CompletableFuture<Collection<DeathRecord>> first = loader.load(playerUid);
+			CompletableFuture<Collection<DeathRecord>> second = loader.load(playerUid);
+
+			Assertions.assertSame(first, second, "requests for same player did not share load.");
+			Collection<DeathRecord> result = first.get(5, TimeUnit.SECONDS);
+			Assertions.assertEquals(1, result.size());
+			Assertions.assertSame(deathRecord, result.iterator().next());
+			Assertions.assertEquals(1, queries.size(), "shared load ran more than one query.");
+		}
+
+		@Test
+		@DisplayName("requests for different players are coalesced into one query.")
+		void PlayersCoalesced() throws Exception {
+			PlayerRecordLoader loader = new PlayerRecordLoader(PlayerRecordLoaderTests.this::query, executor);
+			UUID player1 = UUID.randomUUID();
+			UUID player2 = UUID.randomUUID();
+			storeRecord(player1);
+			storeRecord(player1);
+
+			CompletableFuture<Collection<DeathRecord>> load1 = loader.load(player1);
+			CompletableFuture<Collection<DeathRecord>> load2 = loader.load(player2);
+
+			Assertions.assertEquals(2, load1.get(5, TimeUnit.SECONDS).size());
+			Assertions.assertTrue(load2.get(5, TimeUnit.SECONDS).isEmpty(), "player without records has records.");
+			Assertions.assertEquals(1, queries.size(), "requests were not coalesced into one query.");
+			Assertions.assertEquals(Set.of(player1, player2), queries.get(0));
+		}
+
+		@Test
+		@DisplayName("completed load is no longer shared.")
+		void CompletedLoadRemoved() throws Exception {
+			PlayerRecordLoader loader = new PlayerRecordLoader(PlayerRecordLoaderTests.this::query, executor);
+			UUID playerUid = UUID.randomUUID();
+
+			CompletableFuture<Collection<DeathRecord>> first = loader.load(playerUid);
+			Assertions.assertTrue(loader.getLoad(playerUid).isPresent(), "queued load is not returned.");
+			first.get(5, TimeUnit.SECONDS);
+
+			Assertions.assertFalse(loader.getLoad(playerUid).isPresent(), "completed load is still returned.");
+			CompletableFuture<Collection<DeathRecord>> second = loader.load(playerUid);
+			Assertions.assertNotSame(first, second);
+			second.get(5, TimeUnit.SECONDS);
+			Assertions.assertEquals(2, queries.size());
+		}
+
+		@Test
+		@DisplayName("failed query completes load exceptionally.")
+		void FailedQuery() {
+			PlayerRecordLoader loader = new PlayerRecordLoader(playerUids -> {
+				throw new IllegalStateException("query failed");
+			}, executor);
+			UUID playerUid = UUID.randomUUID();
+
+			CompletableFuture<Collection<DeathRecord>> load = loader.load(playerUid);
+
+			ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> load.get(5, TimeUnit.SECONDS));
+			Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+			Assertions.assertFalse(loader.getLoad(playerUid).isPresent(), "failed load is still returned.");
+		}
+	}
+
+	@Nested
+	@DisplayName("Test group loads.")
+	class LoadAllTests {
+
+		@Test
+		@DisplayName("group load shares load already queued for a player.")
+		void LoadAllSharesQueuedLoad() throws Exception {
+			CountDownLatch release = new CountDownLatch(1);
+			PlayerRecordLoader loader = new PlayerRecordLoader(playerUids -> {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return query(playerUids);
+			}, executor);
+			UUID queuedPlayer = UUID.randomUUID();
+			UUID newPlayer = UUID.randomUUID();
+			storeRecord(queuedPlayer);
+			storeRecord(newPlayer);
+
+			CompletableFuture<Collection<DeathRecord>> queuedLoad = loader.load(queuedPlayer);
+			CompletableFuture<Void> groupLoad = loader.loadAll(List.of(queuedPlayer, newPlayer));
+
+			Assertions.assertSame(queuedLoad, loader.getLoad(queuedPlayer).orElse(null),
+					"group load replaced queued load.");
+			Assertions.assertTrue(loader.getLoad(newPlayer).isPresent(), "group load is not in flight.");
+			Assertions.assertFalse(groupLoad.isDone(), "group load completed before query.");
+
+			release.countDown();
+			groupLoad.get(5, TimeUnit.SECONDS);
+
+			Assertions.assertTrue(queuedLoad.isDone(), "group load completed before shared load.");
+			Assertions.assertEquals(1, queuedLoad.get().size());
+
+			// each player is queried once: the queued player by the coalesced query, the other by the group query
+			Assertions.assertEquals(2, queries.size());
+			int queriedTimes = 0;
+			for (Set<UUID> queried : queries) {
+				if (queried.contains(queuedPlayer)) {
+					queriedTimes++;
+				}
+			}
+			Assertions.assertEquals(1, queriedTimes, "queued player was queried more than once.");
+		}
+
+		@Test
+		@DisplayName("group load of players already loading runs no query.")
+		void LoadAllOfInFlightPlayers() throws Exception {
+			PlayerRecordLoader loader = new PlayerRecordLoader(PlayerRecordLoaderTests.this::query, executor);
+			UUID playerUid = UUID.randomUUID();
+
+			CompletableFuture<Collection<DeathRecord>> load = loader.load(playerUid);
+			CompletableFuture<Void> groupLoad = loader.loadAll(List.of(playerUid));
+
+			groupLoad.get(5, TimeUnit.SECONDS);
+			Assertions.assertTrue(load.isDone());
+			Assertions.assertEquals(1, queries.size(), "group load ran a query for a player already loading.");
+		}
+
+		@Test
+		@DisplayName("group load runs without coalescing delay.")
+		void LoadAllRunsAtOnce() throws Exception {
+			PlayerRecordLoader loader = new PlayerRecordLoader(PlayerRecordLoaderTests.this::query, Runnable::run);
+			UUID player1 = UUID.randomUUID();
+			UUID player2 = UUID.randomUUID();
+			storeRecord(player2);
+
+			CompletableFuture<Void> groupLoad = loader.loadAll(List.of(player1, player2));
+
+			// a direct executor runs the query before loadAll returns
+			Assertions.assertTrue(groupLoad.isDone(), "group load waited for coalescing delay.");
+			Assertions.assertEquals(1, queries.size());
+			Assertions.assertEquals(Set.of(player1, player2), queries.get(0));
+		}
+	}
+
+}
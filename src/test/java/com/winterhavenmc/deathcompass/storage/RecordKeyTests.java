@@ -0,0 +1,106 @@
+package com.winterhavenmc.deathcompass.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class RecordKeyTests {
+
+	// sqlite compares blobs as unsigned bytes
+	private static int compareStored(final byte[] a, final byte[] b) {
+		return Arrays.compareUnsigned(a, b);
+	}
+
+	@Nested
+	@DisplayName("Test key encoding.")
+	class EncodingTests {
+
+		@Test
+		@DisplayName("encoded key decodes to same key.")
+		void RoundTrip() {
+			RecordKey recordKey = new RecordKey(UUID.randomUUID(), UUID.randomUUID());
+			RecordKey decoded = RecordKey.fromBytes(recordKey.toBytes());
+			Assertions.assertEquals(recordKey, decoded);
+			Assertions.assertEquals(recordKey.hashCode(), decoded.hashCode());
+			Assertions.assertEquals(recordKey.getPlayerUid(), decoded.getPlayerUid());
+			Assertions.assertEquals(recordKey.getWorldUid(), decoded.getWorldUid());
+		}
+
+		@Test
+		@DisplayName("key is player uuid then world uid, big-endian.")
+		void ByteOrder() {
+			UUID playerUid = new UUID(0x0102030405060708L, 0x090A0B0C0D0E0F10L);
+			UUID worldUid = new UUID(0x1112131415161718L, 0x191A1B1C1D1E1F20L);
+			byte[] bytes = new RecordKey(playerUid, worldUid).toBytes();
+
+			Assertions.assertEquals(32, bytes.length);
+			for (int i = 0; i < bytes.length; i++) {
+				Assertions.assertEquals(i + 1, bytes[i], "byte " + i + " out of order.");
+			}
+			Assertions.assertArrayEquals(Arrays.copyOfRange(bytes, 0, 16), RecordKey.uidBytes(playerUid));
+			Assertions.assertArrayEquals(Arrays.copyOfRange(bytes, 16, 32), RecordKey.uidBytes(worldUid));
+		}
+
+		@Test
+		@DisplayName("key of death record matches its player and world.")
+		void KeyOfRecord() {
+			DeathRecord deathRecord = new DeathRecord(UUID.randomUUID(), UUID.randomUUID(), 1, 2, 3);
+			Assertions.assertEquals(new RecordKey(deathRecord.getPlayerUid(), deathRecord.getWorldUid()),
+					RecordKey.of(deathRecord));
+		}
+	}
+
+	@Nested
+	@DisplayName("Test player key bounds.")
+	class BoundsTests {
+
+		@Test
+		@DisplayName("all keys of a player sort between its bounds.")
+		void KeysWithinBounds() {
+			UUID playerUid = UUID.randomUUID();
+			byte[] lower = RecordKey.lowerBound(playerUid);
+			byte[] upper = RecordKey.upperBound(playerUid);
+
+			UUID[] worldUids = {
+					new UUID(0, 0),
+					new UUID(-1L, -1L),
+					new UUID(Long.MIN_VALUE, 0),
+					new UUID(Long.MAX_VALUE, Long.MAX_VALUE),
+					UUID.randomUUID()
+			};
+
+			for (UUID worldUid : worldUids) {
+				byte[] key = new RecordKey(playerUid, worldUid).toBytes();
+				Assertions.assertTrue(compareStored(lower, key) <= 0, "key sorts below lower bound.");
+				Assertions.assertTrue(compareStored(key, upper) <= 0, "key sorts above upper bound.");
+			}
+		}
+
+		@Test
+		@DisplayName("keys of adjacent players sort outside bounds.")
+		void AdjacentPlayersOutsideBounds() {
+			UUID playerUid = new UUID(0x7FFFFFFFFFFFFFFFL, -1L);
+			UUID previousUid = new UUID(0x7FFFFFFFFFFFFFFFL, -2L);
+			UUID nextUid = new UUID(0x8000000000000000L, 0);
+			byte[] lower = RecordKey.lowerBound(playerUid);
+			byte[] upper = RecordKey.upperBound(playerUid);
+
+			byte[] previousKey = new RecordKey(previousUid, new UUID(-1L, -1L)).toBytes();
+			byte[] nextKey = new RecordKey(nextUid, new UUID(0, 0)).toBytes();
+
+			Assertions.assertTrue(compareStored(previousKey, lower) < 0, "previous player key sorts within bounds.");
+			Assertions.assertTrue(compareStored(nextKey, upper) > 0, "next player key sorts within bounds.");
+		}
+
+		@Test
+		@DisplayName("bounds are full length keys.")
+		void BoundsLength() {
+			UUID playerUid = UUID.randomUUID();
+			Assertions.assertEquals(32, RecordKey.lowerBound(playerUid).length);
+			Assertions.assertEquals(32, RecordKey.upperBound(playerUid).length);
+		}
+	}
+
+}